@@ -0,0 +1,639 @@
+import java.io.*;
+import java.util.*;
+
+/****
+ * Generator of large synthetic bach programs for scale testing.
+ *
+ * Usage:  java BachGen [options]
+ *
+ *   -seed n     seed for the random choices (default 1); the same options
+ *               and seed always give the same program
+ *   -lines n    instead of a fixed number of functions, keep adding them
+ *               until the program has about n lines
+ *   -funcs n    number of functions besides main (default 100)
+ *   -globals n  number of global integer and boolean variables (default 100)
+ *   -stmts n    statements in each function body (default 20)
+ *   -depth n    deepest nesting of if/while blocks (default 4)
+ *   -expr n     operands in the long expression chains (default 8)
+ *   -chain n    depth of the chained struct types, accessed as
+ *               c:next:next:...:val (default 3)
+ *   -width n    number of fields in the wide struct (default 20)
+ *   -errors n   number of name and type errors of the kinds p4 and p5
+ *               detect to put in the program (default 0)
+ *   -errorkind name|type|both
+ *               which errors -errors puts in (default both); P6 only
+ *               type checks programs without name errors, so use type
+ *               to see type errors reported
+ *   -deep n     instead of all of the above, write a program whose main
+ *               has one construct nested n deep, of the shape given by
+ *               -shape
+ *   -shape chain|paren|block
+ *               the shape for -deep: a + a + ... + a with n operators
+ *               (its AST nests to the left), a + (a + (... + a)) with n
+ *               parentheses (nesting to the right), or n nested while
+ *               loops (default chain)
+ *   -o file     write the program to file instead of standard output
+ *
+ * Without -errors the program is free of syntax, name and type errors.
+ ****/
+public class BachGen {
+    // settings
+    int funcs = 100;
+    int globals = 100;
+    int stmts = 20;
+    int depth = 4;
+    int exprLen = 8;
+    int chain = 3;
+    int width = 20;
+    int errors = 0;
+    String errorKind = "both";
+    long lines = 0;
+
+    private Random rand;
+    private StringBuilder out;
+    private int lineCount;
+
+    // names visible in the function being generated: integer and boolean
+    // variables (including fields reached by colon-access) in scope
+    private List<String> intVars;
+    private List<String> boolVars;
+
+    // functions generated so far (callable by later ones)
+    private List<Func> funcList;
+
+    private int errorsLeft;
+    private int uniq;   // for unique local names
+
+    private static class Func {
+        String name;
+        String retType;         // "integer", "boolean" or "void"
+        List<String> params;    // "integer" or "boolean"
+    }
+
+    public static void main(String[] args) throws IOException {
+        BachGen gen = new BachGen();
+        long seed = 1;
+        String outFile = null;
+        int deep = 0;
+        String shape = "chain";
+
+        for (int k = 0; k < args.length; k++) {
+            if (k + 1 == args.length) {
+                usage("missing value for " + args[k]);
+            }
+            String opt = args[k];
+            String val = args[++k];
+            if (opt.equals("-o")) {
+                outFile = val;
+                continue;
+            }
+            if (opt.equals("-errorkind")) {
+                if (!val.equals("name") && !val.equals("type") &&
+                    !val.equals("both")) {
+                    usage("bad error kind " + val);
+                }
+                gen.errorKind = val;
+                continue;
+            }
+            if (opt.equals("-shape")) {
+                if (!Arrays.asList(SHAPES).contains(val)) {
+                    usage("bad shape " + val);
+                }
+                shape = val;
+                continue;
+            }
+            long n = 0;
+            try {
+                n = Long.parseLong(val);
+            } catch (NumberFormatException ex) {
+                usage("bad number " + val);
+            }
+            if (opt.equals("-seed")) seed = n;
+            else if (opt.equals("-lines")) gen.lines = n;
+            else if (opt.equals("-funcs")) gen.funcs = (int)n;
+            else if (opt.equals("-globals")) gen.globals = (int)n;
+            else if (opt.equals("-stmts")) gen.stmts = (int)n;
+            else if (opt.equals("-depth")) gen.depth = (int)n;
+            else if (opt.equals("-expr")) gen.exprLen = (int)n;
+            else if (opt.equals("-chain")) gen.chain = (int)n;
+            else if (opt.equals("-width")) gen.width = (int)n;
+            else if (opt.equals("-errors")) gen.errors = (int)n;
+            else if (opt.equals("-deep")) deep = (int)n;
+            else usage("unknown option " + opt);
+        }
+
+        String program = deep > 0 ? deep(shape, deep) : gen.generate(seed);
+        if (outFile == null) {
+            System.out.print(program);
+        }
+        else {
+            Writer w = new BufferedWriter(new FileWriter(outFile));
+            w.write(program);
+            w.close();
+        }
+    }
+
+    private static void usage(String msg) {
+        System.err.println(msg);
+        System.err.println("usage: java BachGen [-seed n] [-lines n] " +
+                           "[-funcs n] [-globals n] [-stmts n] [-depth n] " +
+                           "[-expr n] [-chain n] [-width n] [-errors n] " +
+                           "[-errorkind name|type|both] [-deep n] " +
+                           "[-shape chain|paren|block] [-o file]");
+        System.exit(-1);
+    }
+
+    /****
+     * generate
+     * Returns the text of a program made with the current settings and
+     * the given seed.
+     ****/
+    String generate(long seed) {
+        rand = new Random(seed);
+        out = new StringBuilder();
+        lineCount = 0;
+        funcList = new ArrayList<Func>();
+        errorsLeft = errors;
+        uniq = 0;
+
+        line("# generated by BachGen, seed " + seed);
+        structs();
+        globalDecls();
+
+        for (int k = 0; lines > 0 ? lineCount < lines : k < funcs; k++) {
+            function("f" + k);
+        }
+        mainFunction();
+
+        // any errors not placed yet go at the end, inside a function
+        if (errorsLeft > 0) {
+            line("void errors[] [");
+            enterFunction(new ArrayList<String>(), new ArrayList<String>());
+            body(1, 0, "void");
+            while (errorsLeft > 0) {
+                errorStmt(1);
+            }
+            line("]");
+        }
+        return out.toString();
+    }
+
+    // the shapes deep can make
+    static final String[] SHAPES = { "chain", "paren", "block" };
+
+    /****
+     * deep
+     * Returns the text of a program whose main has one construct of the
+     * given shape (see -shape) nested n deep, for testing that P6 copes
+     * with deep ASTs.
+     ****/
+    static String deep(String shape, int n) {
+        StringBuilder sb = new StringBuilder(n * 16 + 64);
+        sb.append("# generated by BachGen, -deep ").append(n)
+          .append(" -shape ").append(shape).append('\n');
+        sb.append("integer a.\n");
+        sb.append("void main[] [\n");
+        switch (shape) {
+        case "chain":
+            sb.append("    a = a");
+            for (int k = 0; k < n; k++) {
+                sb.append(" + a");
+            }
+            sb.append(".\n");
+            break;
+        case "paren":
+            sb.append("    a = ");
+            for (int k = 0; k < n; k++) {
+                sb.append("(a + ");
+            }
+            sb.append('a');
+            for (int k = 0; k < n; k++) {
+                sb.append(')');
+            }
+            sb.append(".\n");
+            break;
+        default:
+            for (int k = 0; k < n; k++) {
+                sb.append("while (a < 10) {\n");
+            }
+            sb.append("a++.\n");
+            for (int k = 0; k < n; k++) {
+                sb.append("}\n");
+            }
+            break;
+        }
+        sb.append("]\n");
+        return sb.toString();
+    }
+
+    // **********************************************************************
+    // declarations
+    // **********************************************************************
+
+    /****
+     * structs
+     * The chained structs C<chain-1> ... C0, where Ck has an integer field
+     * val and a field next of type C(k+1), and the wide struct W.
+     ****/
+    private void structs() {
+        for (int k = chain - 1; k >= 0; k--) {
+            line("struct C" + k + " [");
+            line("    integer val.");
+            line("    boolean flag.");
+            if (k < chain - 1) {
+                line("    struct C" + (k + 1) + " next.");
+            }
+            line("]");
+        }
+        if (width > 0) {
+            line("struct W [");
+            for (int k = 0; k < width; k++) {
+                line("    " + (k % 2 == 0 ? "integer" : "boolean") +
+                     " w" + k + ".");
+            }
+            line("]");
+        }
+    }
+
+    private void globalDecls() {
+        for (int k = 0; k < globals; k++) {
+            line((k % 2 == 0 ? "integer" : "boolean") + " g" + k + ".");
+        }
+        if (chain > 0) {
+            line("struct C0 gc.");
+        }
+        if (width > 0) {
+            line("struct W gw.");
+        }
+    }
+
+    /****
+     * enterFunction
+     * Sets up the variables visible at the start of a function body with
+     * the given integer and boolean parameters.
+     ****/
+    private void enterFunction(List<String> intParams, List<String> boolParams) {
+        intVars = new ArrayList<String>(intParams);
+        boolVars = new ArrayList<String>(boolParams);
+        for (int k = 0; k < globals; k++) {
+            (k % 2 == 0 ? intVars : boolVars).add("g" + k);
+        }
+        if (chain > 0) {
+            String loc = "gc";
+            for (int k = 0; k < chain; k++) {
+                intVars.add(loc + ":val");
+                boolVars.add(loc + ":flag");
+                loc += ":next";
+            }
+        }
+        for (int k = 0; k < width; k++) {
+            (k % 2 == 0 ? intVars : boolVars).add("gw:w" + k);
+        }
+    }
+
+    private void function(String name) {
+        Func f = new Func();
+        f.name = name;
+        int r = rand.nextInt(3);
+        f.retType = r == 0 ? "void" : r == 1 ? "integer" : "boolean";
+        f.params = new ArrayList<String>();
+        int nParams = rand.nextInt(4);
+        List<String> intParams = new ArrayList<String>();
+        List<String> boolParams = new ArrayList<String>();
+        StringBuilder formals = new StringBuilder();
+        for (int k = 0; k < nParams; k++) {
+            boolean isInt = rand.nextBoolean();
+            f.params.add(isInt ? "integer" : "boolean");
+            (isInt ? intParams : boolParams).add("p" + k);
+            if (k > 0) {
+                formals.append(", ");
+            }
+            formals.append(isInt ? "integer" : "boolean").append(" p" + k);
+        }
+
+        // add before the body so that the function may call itself
+        funcList.add(f);
+        line(f.retType + " " + name + "[" + formals + "] [");
+        enterFunction(intParams, boolParams);
+        body(1, stmts, f.retType);
+        line("]");
+    }
+
+    private void mainFunction() {
+        line("void main[] [");
+        enterFunction(new ArrayList<String>(), new ArrayList<String>());
+        body(1, stmts, "void");
+        int calls = Math.min(funcList.size(), 20);
+        for (int k = 0; k < calls; k++) {
+            line(indent(1) + call(funcList.get(funcList.size() - 1 - k)) + ".");
+        }
+        line("]");
+    }
+
+    /****
+     * body
+     * Local declarations and n statements of a block at the given nesting
+     * level.  Locals declared here are only visible inside the block.  A
+     * function body (retType not null) ends with a return if the function
+     * returns a value.
+     ****/
+    private void body(int level, int n, String retType) {
+        int intMark = intVars.size();
+        int boolMark = boolVars.size();
+
+        // the first two locals are an integer and a boolean so there is
+        // always a variable of each type to assign
+        int nLocals = 2 + rand.nextInt(2);
+        for (int k = 0; k < nLocals; k++) {
+            String local = "v" + (uniq++);
+            boolean isInt = k < 2 ? k == 0 : rand.nextBoolean();
+            line(indent(level) + (isInt ? "integer " : "boolean ") + local + ".");
+            (isInt ? intVars : boolVars).add(local);
+        }
+        if (level == 1 && chain > 0 && rand.nextInt(4) == 0) {
+            String local = "s" + (uniq++);
+            line(indent(level) + "struct C0 " + local + ".");
+            String loc = local;
+            for (int k = 0; k < chain; k++) {
+                intVars.add(loc + ":val");
+                loc += ":next";
+            }
+        }
+
+        for (int k = 0; k < n; k++) {
+            if (errorsLeft > 0 && rand.nextInt(Math.max(1, stmts * 4)) == 0) {
+                errorStmt(level);
+            }
+            stmt(level);
+        }
+        if ("integer".equals(retType)) {
+            line(indent(level) + "return " + intExp(exprLen) + ".");
+        }
+        else if ("boolean".equals(retType)) {
+            line(indent(level) + "return " + boolExp(exprLen) + ".");
+        }
+
+        // a function's own locals stay visible until the next function
+        if (level > 1) {
+            truncate(intVars, intMark);
+            truncate(boolVars, boolMark);
+        }
+    }
+
+    // **********************************************************************
+    // statements
+    // **********************************************************************
+
+    private void stmt(int level) {
+        String ind = indent(level);
+        int kind = rand.nextInt(level < depth ? 12 : 9);
+        switch (kind) {
+        case 0:
+        case 1:
+            line(ind + intVar() + " = " + intExp(exprLen) + ".");
+            break;
+        case 2:
+            line(ind + boolVar() + " = " + boolExp(exprLen) + ".");
+            break;
+        case 3:
+            line(ind + intVar() + (rand.nextBoolean() ? "++." : "--."));
+            break;
+        case 4:
+            line(ind + "disp <- " + (rand.nextBoolean() ? intExp(3)
+                                     : "\"line " + lineCount + "\\n\"") + ".");
+            break;
+        case 5:
+            line(ind + "input -> " + intVar() + ".");
+            break;
+        case 6:
+            // a colon-access chain as deep as the structs allow
+            if (chain > 0) {
+                line(ind + "gc" + repeat(":next", chain - 1) + ":val = " +
+                     intExp(2) + ".");
+                break;
+            }
+            // fall through
+        case 7:
+            Func f = randomFunc(null);
+            if (f != null) {
+                line(ind + call(f) + ".");
+                break;
+            }
+            // fall through
+        case 8:
+            line(ind + intVar() + " = " + intVar() + " = " + intExp(2) + ".");
+            break;
+        case 9:
+            line(ind + "if (" + boolExp(3) + ") {");
+            body(level + 1, 1 + rand.nextInt(3), null);
+            line(ind + "}");
+            break;
+        case 10:
+            line(ind + "if (" + boolExp(3) + ") {");
+            body(level + 1, 1 + rand.nextInt(3), null);
+            line(ind + "}");
+            line(ind + "else {");
+            body(level + 1, 1 + rand.nextInt(3), null);
+            line(ind + "}");
+            break;
+        default:
+            line(ind + "while (" + boolExp(3) + ") {");
+            body(level + 1, 1 + rand.nextInt(3), null);
+            line(ind + "}");
+            break;
+        }
+    }
+
+    /****
+     * errorStmt
+     * Generates one statement or declaration containing an error that
+     * name analysis or type checking reports.
+     ****/
+    private void errorStmt(int level) {
+        String ind = indent(level);
+        errorsLeft--;
+        // kinds 0-3 are name errors, 4-7 type errors
+        int kind = rand.nextInt(4);
+        if (errorKind.equals("type") ||
+            (errorKind.equals("both") && rand.nextBoolean())) {
+            kind += 4;
+        }
+        switch (kind) {
+        case 0: // Identifier undeclared
+            line(ind + "undeclared" + (uniq++) + " = 1.");
+            break;
+        case 1: // Identifier multiply-declared
+            String dup = "d" + (uniq++);
+            line(ind + "if (TRUE) {");
+            line(ind + "    integer " + dup + ".");
+            line(ind + "    boolean " + dup + ".");
+            line(ind + "}");
+            break;
+        case 2: // Name of struct field invalid
+            line(ind + "gc:nosuchfield = 1.");
+            break;
+        case 3: // Colon-access of non-struct type
+            line(ind + intVar() + ":val = 1.");
+            break;
+        case 4: // Type mismatch
+            line(ind + intVar() + " = " + boolExp(2) + ".");
+            break;
+        case 5: // Arithmetic operator with non-integer operand
+            line(ind + intVar() + " = " + boolVar() + " + 1.");
+            break;
+        case 6: // Non-boolean expression in if condition
+            line(ind + "if (" + intExp(2) + ") {");
+            line(ind + "}");
+            break;
+        default: // Wrong # of args in function call
+            Func f = randomFunc(null);
+            if (f != null) {
+                StringBuilder args = new StringBuilder();
+                for (int k = 0; k <= f.params.size(); k++) {
+                    args.append(k > 0 ? ", " : "").append("1");
+                }
+                line(ind + f.name + "(" + args + ").");
+            }
+            else {
+                line(ind + "disp <- (" + boolVar() + " + 1).");
+            }
+            break;
+        }
+    }
+
+    // **********************************************************************
+    // expressions
+    // **********************************************************************
+
+    /****
+     * intExp
+     * An integer expression: a chain of about n operands joined by
+     * arithmetic operators.
+     ****/
+    private String intExp(int n) {
+        StringBuilder sb = new StringBuilder(intTerm());
+        for (int k = 1; k < n; k++) {
+            sb.append(ARITH[rand.nextInt(ARITH.length)]).append(intTerm());
+        }
+        return sb.toString();
+    }
+
+    private static final String[] ARITH = { " + ", " - ", " * ", " / " };
+    private static final String[] REL =
+        { " < ", " > ", " <= ", " >= ", " == ", " ^= " };
+
+    private String intTerm() {
+        switch (rand.nextInt(6)) {
+        case 0:
+            return "" + rand.nextInt(1000);
+        case 1:
+            return "(-" + intVar() + ")";
+        case 2:
+            Func f = randomFunc("integer");
+            if (f != null) {
+                return call(f);
+            }
+            // fall through
+        case 3:
+            return "(" + intVar() + " + " + rand.nextInt(10) + ")";
+        default:
+            return intVar();
+        }
+    }
+
+    /****
+     * boolExp
+     * A boolean expression: a chain of about n operands joined by & and |.
+     ****/
+    private String boolExp(int n) {
+        StringBuilder sb = new StringBuilder(boolTerm());
+        for (int k = 1; k < n; k++) {
+            sb.append(rand.nextBoolean() ? " & " : " | ").append(boolTerm());
+        }
+        return sb.toString();
+    }
+
+    private String boolTerm() {
+        switch (rand.nextInt(6)) {
+        case 0:
+            return rand.nextBoolean() ? "TRUE" : "FALSE";
+        case 1:
+            return "^" + boolVar();
+        case 2:
+            Func f = randomFunc("boolean");
+            if (f != null) {
+                return call(f);
+            }
+            // fall through
+        case 3:
+            return "(" + intTerm() + REL[rand.nextInt(REL.length)] +
+                   intTerm() + ")";
+        default:
+            return boolVar();
+        }
+    }
+
+    private String call(Func f) {
+        StringBuilder sb = new StringBuilder(f.name).append("(");
+        for (int k = 0; k < f.params.size(); k++) {
+            if (k > 0) {
+                sb.append(", ");
+            }
+            sb.append(f.params.get(k).equals("integer") ? intExp(2)
+                                                        : boolTerm());
+        }
+        return sb.append(")").toString();
+    }
+
+    /****
+     * randomFunc
+     * One of the functions generated so far with the given return type
+     * (any if retType is null), or null if there is none.  Recent
+     * functions are preferred so calls are spread over the program.
+     ****/
+    private Func randomFunc(String retType) {
+        for (int tries = 0; tries < 4 && !funcList.isEmpty(); tries++) {
+            int window = Math.min(funcList.size(), 50);
+            Func f = funcList.get(funcList.size() - 1 - rand.nextInt(window));
+            if (retType == null || f.retType.equals(retType)) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private String intVar() {
+        return intVars.get(rand.nextInt(intVars.size()));
+    }
+
+    private String boolVar() {
+        return boolVars.get(rand.nextInt(boolVars.size()));
+    }
+
+    // **********************************************************************
+    // output
+    // **********************************************************************
+
+    private void line(String s) {
+        out.append(s).append('\n');
+        lineCount++;
+    }
+
+    private static String indent(int level) {
+        return repeat("    ", level);
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < n; k++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static void truncate(List<String> list, int size) {
+        while (list.size() > size) {
+            list.remove(list.size() - 1);
+        }
+    }
+}
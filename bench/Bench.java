@@ -0,0 +1,259 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/****
+ * Bench
+ *
+ * A small benchmark harness in the style of JMH, with no dependencies so
+ * that it builds with the same Makefiles as the compiler.  A benchmark is
+ * a subclass that does one operation in op().  Each benchmark is run for
+ * a number of warm-up iterations (so the JIT has compiled it) and then a
+ * number of measured iterations, each lasting a fixed time; the mean time
+ * per operation and its spread over the measured iterations are reported,
+ * along with tokens/s and MB/s for benchmarks that set tokensPerOp or
+ * bytesPerOp, calls/s for those that set callsPerOp, and the bytes
+ * allocated per operation (and per second) for those that set
+ * reportAlloc, measured on the benchmark's thread over the measured
+ * iterations.
+ *
+ * Every op() returns a value that is added to a sink so that the JIT
+ * cannot discard the work.
+ ****/
+abstract class Bench {
+    // settings shared by all benchmarks, changed by parseArgs
+    static int warmups = 5;
+    static int iterations = 5;
+    static long iterationMillis = 500;
+    static String filter = null;
+
+    private static long sink;
+
+    final String name;
+
+    // set by benchmarks that process tokens or source text, or that make
+    // a number of smaller calls (such as to a symbol table) in each op
+    long tokensPerOp = 0;
+    long bytesPerOp = 0;
+    long callsPerOp = 0;
+
+    // set by benchmarks whose allocation is to be reported
+    boolean reportAlloc = false;
+
+    // the number of times op() has been called
+    private long opCount = 0;
+
+    Bench(String name) {
+        this.name = name;
+    }
+
+    /****
+     * op
+     * Does one operation of the benchmark and returns any value that
+     * depends on the work done.
+     ****/
+    abstract long op() throws Exception;
+
+    /****
+     * parseArgs
+     * Handles the harness options at the start of args and returns the
+     * rest:
+     *   -w n     warm-up iterations (default 5)
+     *   -i n     measured iterations (default 5)
+     *   -t ms    length of each iteration in milliseconds (default 500)
+     *   -f text  run only the benchmarks whose names contain text
+     ****/
+    static String[] parseArgs(String[] args) {
+        int k = 0;
+        for (; k + 1 < args.length && args[k].startsWith("-"); k += 2) {
+            if (args[k].equals("-w")) {
+                warmups = Integer.parseInt(args[k+1]);
+            }
+            else if (args[k].equals("-i")) {
+                iterations = Integer.parseInt(args[k+1]);
+            }
+            else if (args[k].equals("-t")) {
+                iterationMillis = Long.parseLong(args[k+1]);
+            }
+            else if (args[k].equals("-f")) {
+                filter = args[k+1];
+            }
+            else {
+                break;
+            }
+        }
+        return Arrays.copyOfRange(args, k, args.length);
+    }
+
+    /****
+     * run
+     * Runs the benchmark (unless filtered out) and prints one line of
+     * results to out.
+     ****/
+    void run(PrintStream out) throws Exception {
+        if (filter != null && !name.contains(filter)) {
+            return;
+        }
+
+        for (int k = 0; k < warmups; k++) {
+            iteration();
+        }
+
+        long startOps = opCount;
+        long startAlloc = allocatedBytes();
+        double[] nanosPerOp = new double[iterations];
+        for (int k = 0; k < iterations; k++) {
+            nanosPerOp[k] = iteration();
+        }
+        long alloc = allocatedBytes() - startAlloc;
+        double allocPerOp = startAlloc < 0 ? -1
+                            : (double)alloc / (opCount - startOps);
+
+        double mean = 0;
+        for (double n : nanosPerOp) {
+            mean += n;
+        }
+        mean /= iterations;
+        double var = 0;
+        for (double n : nanosPerOp) {
+            var += (n - mean) * (n - mean);
+        }
+        double sd = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%-48s %12.3f us/op  +- %8.3f",
+                                  name, mean / 1e3, sd / 1e3));
+        if (tokensPerOp > 0) {
+            line.append(String.format("  %8.2f Mtokens/s",
+                                      tokensPerOp / mean * 1e3));
+        }
+        if (bytesPerOp > 0) {
+            line.append(String.format("  %8.2f MB/s",
+                                      bytesPerOp / mean * 1e3));
+        }
+        if (callsPerOp > 0) {
+            line.append(String.format("  %8.2f Mcalls/s",
+                                      callsPerOp / mean * 1e3));
+        }
+        if (reportAlloc && allocPerOp >= 0) {
+            line.append(String.format("  %12.1f B/op alloc  %8.1f MB/s",
+                                      allocPerOp, allocPerOp / mean * 1e3));
+        }
+        out.println(line);
+    }
+
+    /****
+     * iteration
+     * Runs op() repeatedly for iterationMillis and returns the mean time
+     * per operation in nanoseconds.
+     ****/
+    private double iteration() throws Exception {
+        long limit = iterationMillis * 1000000L;
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += op();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < limit);
+        opCount += ops;
+        return (double)elapsed / ops;
+    }
+
+    /****
+     * allocatedBytes
+     * Returns the bytes allocated so far by the calling thread, or -1 if
+     * the JVM cannot tell.
+     ****/
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads =
+            java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunThreads =
+            (com.sun.management.ThreadMXBean)threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() ||
+            !sunThreads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sunThreads.getThreadAllocatedBytes(
+                                           Thread.currentThread().getId());
+    }
+
+    /****
+     * retainedBytes
+     * Returns the growth of the heap, after garbage collection, from
+     * calling make and keeping what it returns: the median of several
+     * tries, so that a collection that leaves some garbage behind does not
+     * decide it.  The serial and parallel collectors leave dead objects
+     * in place when there are few of them (up to MarkSweepDeadRatio
+     * percent of the old generation), which can hide the whole of what is
+     * measured, so the Makefile runs the benchmarks with
+     * -XX:MarkSweepDeadRatio=0; without it a note is printed, once.
+     ****/
+    static long retainedBytes(Callable<Object> make) throws Exception {
+        checkDeadRatio();
+        long[] samples = new long[RETAINED_SAMPLES];
+        for (int k = 0; k < samples.length; k++) {
+            long before = heapUsed();
+            retained = make.call();
+            long after = heapUsed();
+            retained = null;
+            samples[k] = after - before;
+        }
+        Arrays.sort(samples);
+        return samples[samples.length / 2];
+    }
+
+    private static final int RETAINED_SAMPLES = 7;
+
+    // what retainedBytes is measuring, kept in a field so that it stays
+    // reachable (the JIT may find a local dead before the heap is
+    // measured)
+    private static Object retained;
+
+    private static boolean deadRatioChecked = false;
+
+    private static void checkDeadRatio() {
+        if (deadRatioChecked) {
+            return;
+        }
+        deadRatioChecked = true;
+        com.sun.management.HotSpotDiagnosticMXBean hotSpot =
+            java.lang.management.ManagementFactory.getPlatformMXBean(
+                com.sun.management.HotSpotDiagnosticMXBean.class);
+        if (hotSpot != null &&
+            !hotSpot.getVMOption("MarkSweepDeadRatio").getValue()
+                    .equals("0")) {
+            System.out.println("  (heap sizes may be too small: run with " +
+                               "-XX:MarkSweepDeadRatio=0)");
+        }
+    }
+
+    private static long heapUsed() {
+        Runtime rt = Runtime.getRuntime();
+        for (int k = 0; k < 3; k++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /****
+     * sink
+     * Adds value to the sink, for work done outside a benchmark.
+     ****/
+    static void sink(long value) {
+        sink += value;
+    }
+
+    /****
+     * sink
+     * Returns the sum of everything the benchmarks have returned; printing
+     * it at the end keeps it live.
+     ****/
+    static long sink() {
+        return sink;
+    }
+}
@@ -0,0 +1,506 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java_cup.runtime.*;
+
+/****
+ * Benchmarks for each phase of the p6 bach compiler:
+ *
+ *   lex           Yylex.next_token over the whole source (tokens/s, MB/s)
+ *   lexBuffer     the same, filling a TokenBuffer (reused between runs)
+ *                 with Yylex.fill instead, as P6 --token-buffer does
+ *   lexFast       FastLexer.next_token over the whole source, as P6
+ *                 --lexer=fast does
+ *   lexFastBuffer FastLexer filling a TokenBuffer, like lexBuffer
+ *   lexParallel   ParallelLexer with Yylex on 4 threads, as P6
+ *                 --lex-threads=4 does (the source is only split into
+ *                 chunks of at least ParallelLexer.MIN_CHUNK chars)
+ *   lexFastParallel
+ *                 the same with FastLexer
+ *   lexFile       the same, reading the source from a file as P6 does
+ *   lexMapped     the same, reading the file through a MappedSource as
+ *                 P6 --mmap does
+ *   parse         parser.parse on tokens lexed beforehand
+ *   parseFast     FastParser.parse on a TokenBuffer filled beforehand, as
+ *                 P6 --parser=fast --token-buffer does
+ *   parseFlat     the same, but only building the FlatAst, not turning it
+ *                 into ASTnodes
+ *   cacheLoad     hashing the source and loading its AST from an AstCache
+ *                 entry stored beforehand, as P6 --cache-dir does for a
+ *                 source it has seen (so lex and parse are skipped)
+ *   astBytes      not a benchmark: the heap retained by the AST that
+ *                 parse builds, the median of several measurements
+ *                 after garbage collections (see Bench.retainedBytes)
+ *   astBytesFlat  the same for the FlatAst that parseFlat builds
+ *   unparse       ProgramNode.unparse writing to a null sink
+ *   walk          ASTWalker running two visitors, one counting all nodes
+ *                 and one counting identifiers, fused into one walk
+ *   walkSeparate  the same two visitors, each in a walk of its own
+ *   nameAnalysis  ProgramNode.nameAnalysis
+ *   nameAnalysisFlat
+ *                 the same with FlatSymTabs, as P6 --symtab=flat does
+ *   typeCheck     ProgramNode.typeCheck
+ *   codeGen       ProgramNode.codeGen writing to a null sink
+ *
+ * Usage:  java PhaseBench [harness options] [-scale n,...] [-gen n,...]
+ *                         [-deep n,...] [file...]
+ *
+ * The harness options are described in Bench.parseArgs.  For each n
+ * given with -gen, a program of about n lines made by BachGen (seed 1) is
+ * benchmarked, and for each n given with -deep, two programs with an
+ * expression nested n deep (BachGen -deep n with -shape chain and paren),
+ * which are run on a thread with a stack as big as P6 would give them
+ * (see DeepStack).  With none of -gen, -deep or files, the inputs are
+ * the corpus checked in with p3-p5 and BachGen programs of 1000, 10000
+ * and 100000 lines: the programs have no errors, so every phase runs on
+ * them, and is measured doing its usual work rather than reporting
+ * errors.
+ *
+ * Each file is benchmarked as it is and scaled: for each n given
+ * with -scale (default 10,100) the source repeated n times is benchmarked
+ * as well, so the cost per token can be compared as programs grow.  Phases
+ * an input cannot reach are skipped: as in P6, typeCheck needs a program
+ * without name errors and codeGen one without type errors, and a file
+ * that does not parse (p6 has no struct formals, so p3's tests do not) is
+ * only lexed.  Error messages from the compiler are discarded.
+ ****/
+public class PhaseBench {
+    static final String[] CORPUS = {
+        "../p3/tests/final-1.bach",
+        "../p3/tests/final-2.bach",
+        "../p4/nameErrors.bach",
+        "../p5/typeErrors.bach"
+    };
+
+    // the lines of the programs benchmarked with the corpus by default
+    static final int[] DEFAULT_GEN = { 1000, 10000, 100000 };
+
+    static final PrintStream nullStream =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+        args = Bench.parseArgs(args);
+
+        int[] scales = { 10, 100 };
+        int[] genLines = {};
+        int[] depths = {};
+        while (args.length > 1 && (args[0].equals("-scale") ||
+                                   args[0].equals("-gen") ||
+                                   args[0].equals("-deep"))) {
+            String[] parts = args[1].split(",");
+            int[] values = new int[parts.length];
+            for (int k = 0; k < parts.length; k++) {
+                values[k] = Integer.parseInt(parts[k]);
+            }
+            if (args[0].equals("-scale")) {
+                scales = values;
+            }
+            else if (args[0].equals("-gen")) {
+                genLines = values;
+            }
+            else {
+                depths = values;
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        String[] files = args;
+        if (args.length == 0 && genLines.length + depths.length == 0) {
+            files = CORPUS;
+            genLines = DEFAULT_GEN;
+        }
+        for (int n : genLines) {
+            BachGen gen = new BachGen();
+            gen.lines = n;
+            benchInput("gen" + n, gen.generate(1));
+        }
+
+        for (int n : depths) {
+            for (String shape : new String[] { "chain", "paren" }) {
+                String text = BachGen.deep(shape, n);
+                DeepStack.call(() -> {
+                    benchInput(shape + n, text);
+                    return null;
+                }, DeepStack.stackSize(text.length()));
+            }
+        }
+
+        for (String file : files) {
+            String text = new String(Files.readAllBytes(Paths.get(file)));
+            String name = new File(file).getName();
+            benchInput(name, text);
+            for (int n : scales) {
+                StringBuilder sb = new StringBuilder(text.length() * n);
+                for (int k = 0; k < n; k++) {
+                    sb.append(text).append('\n');
+                }
+                benchInput(name + "x" + n, sb.toString());
+            }
+        }
+        System.out.println("(sink " + Bench.sink() + ")");
+    }
+
+    /****
+     * benchInput
+     * Runs every phase benchmark that the given source can reach.
+     ****/
+    static void benchInput(String name, String text) throws Exception {
+        final char[] source = text.toCharArray();
+
+        // lex once to find the tokens, for the parse benchmark
+        final List<Integer> kinds = new ArrayList<Integer>();
+        final List<Object> values = new ArrayList<Object>();
+        freshContext();
+        Yylex scanner = new Yylex(new CharArrayReader(source));
+        for (Symbol token = scanner.next_token(); token.sym != sym.EOF;
+             token = scanner.next_token()) {
+            kinds.add(token.sym);
+            values.add(token.value);
+        }
+
+        Bench lex = new Bench("lex " + name) {
+            long op() throws Exception {
+                freshContext();
+                Yylex scanner = new Yylex(new CharArrayReader(source));
+                long count = 0;
+                while (scanner.next_token().sym != sym.EOF) {
+                    count++;
+                }
+                return count;
+            }
+        };
+        lex.tokensPerOp = kinds.size();
+        lex.bytesPerOp = source.length;
+        lex.run(System.out);
+
+        final TokenBuffer buffer = new TokenBuffer(freshContext(), 1024);
+        Bench lexBuffer = new Bench("lexBuffer " + name) {
+            long op() throws Exception {
+                freshContext();
+                buffer.clear();
+                buffer.fill(new Yylex(new CharArrayReader(source)));
+                return buffer.size();
+            }
+        };
+        lexBuffer.tokensPerOp = kinds.size();
+        lexBuffer.bytesPerOp = source.length;
+        lexBuffer.run(System.out);
+
+        Bench lexFast = new Bench("lexFast " + name) {
+            long op() throws Exception {
+                freshContext();
+                FastLexer scanner = new FastLexer(new CharArrayReader(source));
+                long count = 0;
+                while (scanner.next_token().sym != sym.EOF) {
+                    count++;
+                }
+                return count;
+            }
+        };
+        lexFast.tokensPerOp = kinds.size();
+        lexFast.bytesPerOp = source.length;
+        lexFast.run(System.out);
+
+        Bench lexFastBuffer = new Bench("lexFastBuffer " + name) {
+            long op() throws Exception {
+                freshContext();
+                buffer.clear();
+                buffer.fill(new FastLexer(new CharArrayReader(source)));
+                return buffer.size();
+            }
+        };
+        lexFastBuffer.tokensPerOp = kinds.size();
+        lexFastBuffer.bytesPerOp = source.length;
+        lexFastBuffer.run(System.out);
+
+        for (final boolean fast : new boolean[] { false, true }) {
+            Bench lexParallel = new Bench((fast ? "lexFastParallel "
+                                                : "lexParallel ") + name) {
+                long op() throws Exception {
+                    freshContext();
+                    return ParallelLexer.lex(new CharArrayReader(source), 4,
+                                             fast).size();
+                }
+            };
+            lexParallel.tokensPerOp = kinds.size();
+            lexParallel.bytesPerOp = source.length;
+            lexParallel.run(System.out);
+        }
+
+        final File file = File.createTempFile("bench", ".bach");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes());
+
+        Bench lexFile = new Bench("lexFile " + name) {
+            long op() throws Exception {
+                freshContext();
+                return lexAll(new BufferedReader(new FileReader(file)));
+            }
+        };
+        lexFile.tokensPerOp = kinds.size();
+        lexFile.bytesPerOp = source.length;
+        lexFile.run(System.out);
+
+        Bench lexMapped = new Bench("lexMapped " + name) {
+            long op() throws Exception {
+                freshContext();
+                return lexAll(new MappedSource(file.getPath()));
+            }
+        };
+        lexMapped.tokensPerOp = kinds.size();
+        lexMapped.bytesPerOp = source.length;
+        lexMapped.run(System.out);
+        file.delete();
+
+        final ProgramNode root = parse(kinds, values);
+        if (root == null) {
+            System.out.println("  (" + name + " does not parse; " +
+                               "later phases skipped)");
+            return;
+        }
+
+        Bench parse = new Bench("parse " + name) {
+            long op() throws Exception {
+                return parse(kinds, values).hashCode();
+            }
+        };
+        parse.tokensPerOp = kinds.size();
+        parse.run(System.out);
+
+        freshContext();
+        final TokenBuffer tokens = new TokenBuffer();
+        tokens.fill(new Yylex(new CharArrayReader(source)));
+        Bench parseFast = new Bench("parseFast " + name) {
+            long op() throws Exception {
+                freshContext();
+                return new FastParser(tokens).parse().hashCode();
+            }
+        };
+        parseFast.tokensPerOp = kinds.size();
+        parseFast.run(System.out);
+
+        Bench parseFlat = new Bench("parseFlat " + name) {
+            long op() throws Exception {
+                freshContext();
+                return new FastParser(tokens).parseFlat().size();
+            }
+        };
+        parseFlat.tokensPerOp = kinds.size();
+        parseFlat.run(System.out);
+
+        final byte[] bytes = text.getBytes();
+        final File cacheDir = Files.createTempDirectory("bench").toFile();
+        final AstCache cache = new AstCache(cacheDir);
+        cache.store(AstCache.hash(bytes), new FastParser(tokens).parseFlat(),
+                    tokens.names(), tokens.strings());
+        Bench cacheLoad = new Bench("cacheLoad " + name) {
+            long op() throws Exception {
+                freshContext();
+                return cache.load(AstCache.hash(bytes)).hashCode();
+            }
+        };
+        cacheLoad.tokensPerOp = kinds.size();
+        cacheLoad.bytesPerOp = bytes.length;
+        cacheLoad.run(System.out);
+        for (File entry : cacheDir.listFiles()) {
+            entry.delete();
+        }
+        cacheDir.delete();
+
+        if (Bench.filter == null || "astBytes".contains(Bench.filter)) {
+            printBytes("astBytes " + name, astBytes(kinds, values),
+                       kinds.size());
+        }
+        if (Bench.filter == null || "astBytesFlat".contains(Bench.filter)) {
+            printBytes("astBytesFlat " + name, astBytesFlat(tokens),
+                       kinds.size());
+        }
+
+        new Bench("unparse " + name) {
+            long op() {
+                freshContext();
+                root.unparse(new PrintWriter(OutputStream.nullOutputStream()),
+                             0);
+                return 1;
+            }
+        }.run(System.out);
+
+        new Bench("walk " + name) {
+            long op() {
+                NodeCounter nodes = new NodeCounter();
+                NodeCounter ids = new NodeCounter(FlatAst.ID);
+                ASTWalker.walk(root, nodes, ids);
+                return nodes.count + ids.count;
+            }
+        }.run(System.out);
+
+        new Bench("walkSeparate " + name) {
+            long op() {
+                NodeCounter nodes = new NodeCounter();
+                NodeCounter ids = new NodeCounter(FlatAst.ID);
+                ASTWalker.walk(root, nodes);
+                ASTWalker.walk(root, ids);
+                return nodes.count + ids.count;
+            }
+        }.run(System.out);
+
+        new Bench("nameAnalysis " + name) {
+            long op() {
+                freshContext();
+                root.nameAnalysis();
+                return 1;
+            }
+        }.run(System.out);
+
+        new Bench("nameAnalysisFlat " + name) {
+            long op() {
+                freshContext().symTabs = FlatSymTab::new;
+                root.nameAnalysis();
+                return 1;
+            }
+        }.run(System.out);
+
+        // like P6, the later phases are only run on programs without errors
+        CompileContext ctx = freshContext();
+        root.nameAnalysis();
+        if (ctx.err) {
+            System.out.println("  (" + name + " has name errors; " +
+                               "later phases skipped)");
+            return;
+        }
+
+        new Bench("typeCheck " + name) {
+            long op() {
+                freshContext();
+                root.typeCheck();
+                return 1;
+            }
+        }.run(System.out);
+
+        ctx = freshContext();
+        root.typeCheck();
+        if (ctx.err) {
+            System.out.println("  (" + name + " has type errors; " +
+                               "codeGen skipped)");
+            return;
+        }
+
+        new Bench("codeGen " + name) {
+            long op() {
+                CompileContext ctx = freshContext();
+                ctx.codeOut = new PrintWriter(OutputStream.nullOutputStream());
+                root.codeGen();
+                return ctx.currLabel;
+            }
+        }.run(System.out);
+    }
+
+    /****
+     * lexAll
+     * Scans in to the end, closes it and returns the number of tokens.
+     ****/
+    static long lexAll(BufferedReader in) throws IOException {
+        Yylex scanner = new Yylex(in);
+        long count = 0;
+        while (scanner.next_token().sym != sym.EOF) {
+            count++;
+        }
+        in.close();
+        return count;
+    }
+
+    /****
+     * parse
+     * Parses the given tokens and returns the AST, or null if there is
+     * a syntax error.
+     ****/
+    static ProgramNode parse(List<Integer> kinds, List<Object> values) {
+        freshContext();
+        try {
+            return (ProgramNode)new parser(new ReplayScanner(kinds, values))
+                                    .parse().value;
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+
+    /****
+     * astBytes
+     * Returns the heap retained by the AST parsed from the given tokens
+     * (see Bench.retainedBytes).
+     ****/
+    static long astBytes(List<Integer> kinds, List<Object> values)
+        throws Exception
+    {
+        return Bench.retainedBytes(() -> parse(kinds, values));
+    }
+
+    /****
+     * astBytesFlat
+     * Returns the heap retained by the FlatAst that FastParser.parseFlat
+     * builds from the given tokens.
+     ****/
+    static long astBytesFlat(TokenBuffer tokens) throws Exception {
+        freshContext();
+        return Bench.retainedBytes(() -> new FastParser(tokens).parseFlat());
+    }
+
+    private static void printBytes(String label, long bytes, int tokens) {
+        System.out.println(String.format("%-48s %12d bytes  %11.1f " +
+                                         "bytes/token",
+                                         label, bytes,
+                                         (double)bytes / tokens));
+    }
+
+    /****
+     * freshContext
+     * Makes a new CompileContext, discarding error messages, current.
+     ****/
+    static CompileContext freshContext() {
+        CompileContext ctx = new CompileContext(nullStream);
+        CompileContext.setCurrent(ctx);
+        return ctx;
+    }
+
+    /****
+     * NodeCounter
+     * Counts the nodes of the given kinds (all nodes if none are given).
+     ****/
+    static class NodeCounter extends ASTVisitor {
+        long count = 0;
+
+        NodeCounter(int... kinds) {
+            super(kinds);
+        }
+
+        boolean enter(ASTnode node) {
+            count++;
+            return true;
+        }
+    }
+
+    /****
+     * ReplayScanner
+     * Returns tokens lexed earlier.  The parser marks the Symbols it uses,
+     * so new ones are made each time, but the token values are shared.
+     ****/
+    static class ReplayScanner implements java_cup.runtime.Scanner {
+        private final List<Integer> kinds;
+        private final List<Object> values;
+        private int next = 0;
+
+        ReplayScanner(List<Integer> kinds, List<Object> values) {
+            this.kinds = kinds;
+            this.values = values;
+        }
+
+        public Symbol next_token() {
+            if (next == kinds.size()) {
+                return new Symbol(sym.EOF);
+            }
+            Symbol token = new Symbol(kinds.get(next), values.get(next));
+            next++;
+            return token;
+        }
+    }
+}
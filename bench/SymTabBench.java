@@ -0,0 +1,510 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.file.*;
+import java.util.*;
+
+/****
+ * Benchmarks of the symbol table designs in this tree, each replaying the
+ * same traces of SymTab calls:
+ *
+ *   p1-part1  a LinkedList of HashMaps, innermost scope first
+ *   p1-part2  an ArrayList of HashMaps, innermost scope last
+ *   p4        a LinkedList of HashMaps, as p4's name analysis uses
+ *   p6        the same with offsets, as P6 uses by default
+ *   p6-flat   FlatSymTab: one hash table with an undo log, as P6
+ *             --symtab=flat uses
+ *
+ * Every implementation is a class named SymTab (or a subclass of p6's),
+ * with its own Sym, so each is loaded with its own class loader from its
+ * directory (p1's are compiled by the Makefile into p1part1 and p1part2)
+ * and driven by its own copy of SymTabReplay.  One that is not built (p1
+ * part1 needs Java 21) is skipped.  p5's SymTab is p4's, so it is not
+ * listed.  Between them these check the answers in p1/part2/Questions.txt:
+ * HashMap scopes, and an ArrayList of them against a LinkedList.
+ *
+ * The traces are:
+ *
+ *   deepN     N nested scopes, each declaring one name and looking up
+ *             names declared at random depths above it, then all popped
+ *   wideN     one scope of N names, each looked up four times at random,
+ *             with one lookup in ten of a name that is not declared
+ *   shadowN   N functions, each nesting 8 blocks that all redeclare the
+ *             same few names and look them up, as loop-heavy code does
+ *   name.bach the calls P6's name analysis makes for a program: the
+ *             corpus checked in with p4-p6, or the files given
+ *   genN      the same for a program of about N lines made by BachGen
+ *
+ * Each synthetic trace does what name analysis does before a declaration:
+ * it looks the name up in the innermost scope.  For each trace and each
+ * implementation the replay benchmark reports the time per replay, the
+ * SymTab calls per second, and the bytes allocated per replay and per
+ * second; then the heap retained by each implementation's tables is
+ * measured at the point of the trace where the most names are declared
+ * (the symbols themselves are shared and not counted).
+ *
+ * Usage:  java SymTabBench [harness options] [-deep n] [-wide n]
+ *                          [-shadow n] [-gen n,...] [file...]
+ *
+ * The harness options are described in Bench.parseArgs; -f selects by
+ * implementation or trace name.  The defaults are -deep 1000 -wide 10000
+ * -shadow 200 -gen 20000.
+ ****/
+public class SymTabBench {
+    static final String[] CORPUS = {
+        "../p4/nameErrors.bach",
+        "../p5/typeErrors.bach",
+        "../p6/tests/valid.bach"
+    };
+
+    // name, directory and table class of each implementation
+    static final String[][] IMPLEMENTATIONS = {
+        { "p1-part1", "p1part1", "SymTab" },
+        { "p1-part2", "p1part2", "SymTab" },
+        { "p4", "../p4", "SymTab" },
+        { "p6", "../p6", "SymTab" },
+        { "p6-flat", "../p6", "FlatSymTab" }
+    };
+
+    static final PrintStream nullStream =
+        new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+        args = Bench.parseArgs(args);
+
+        int deep = 1000;
+        int wide = 10000;
+        int shadow = 200;
+        int[] genLines = { 20000 };
+        while (args.length > 1 && args[0].matches("-(deep|wide|shadow|gen)")) {
+            if (args[0].equals("-gen")) {
+                String[] parts = args[1].split(",");
+                genLines = new int[parts.length];
+                for (int k = 0; k < parts.length; k++) {
+                    genLines[k] = Integer.parseInt(parts[k]);
+                }
+            }
+            else {
+                int n = Integer.parseInt(args[1]);
+                if (args[0].equals("-deep")) {
+                    deep = n;
+                }
+                else if (args[0].equals("-wide")) {
+                    wide = n;
+                }
+                else {
+                    shadow = n;
+                }
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+
+        List<String> impls = new ArrayList<String>();
+        List<Replayer> replayers = new ArrayList<Replayer>();
+        for (String[] impl : IMPLEMENTATIONS) {
+            if (!new File(impl[1], impl[2] + ".class").isFile()) {
+                System.out.println("  (" + impl[0] + " is not built; skipped)");
+                continue;
+            }
+            impls.add(impl[0]);
+            replayers.add(load(impl[1], impl[2]));
+        }
+
+        List<Trace> traces = new ArrayList<Trace>();
+        traces.add(deep(deep));
+        traces.add(wide(wide));
+        traces.add(shadow(shadow));
+        for (String file : args.length > 0 ? args : CORPUS) {
+            String text = new String(Files.readAllBytes(Paths.get(file)));
+            Trace trace = record(new File(file).getName(), text);
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+        for (int n : genLines) {
+            BachGen gen = new BachGen();
+            gen.lines = n;
+            traces.add(record("gen" + n, gen.generate(1)));
+        }
+
+        for (Trace trace : traces) {
+            for (int k = 0; k < replayers.size(); k++) {
+                benchReplay(impls.get(k), replayers.get(k), trace);
+            }
+            for (int k = 0; k < replayers.size(); k++) {
+                String name = "retained " + impls.get(k) + " " + trace.name;
+                if (Bench.filter == null || name.contains(Bench.filter)) {
+                    printRetained(name, retained(replayers.get(k), trace),
+                                  trace.peakBindings);
+                }
+            }
+        }
+        System.out.println("(sink " + Bench.sink() + ")");
+    }
+
+    /****
+     * Replayer
+     * What SymTabReplay does, for one implementation.
+     ****/
+    public interface Replayer {
+        /****
+         * replay
+         * Makes the calls ops[0] to ops[end - 1], keeping the tables made
+         * in tables, and returns the number of lookups that found a
+         * symbol less the number of duplicate declarations.
+         ****/
+        long replay(int[] ops, String[] names, int end, Object[] tables)
+            throws Exception;
+    }
+
+    /****
+     * Trace
+     * A sequence of calls to one or more symbol tables.  Each call is an
+     * int holding its kind and the number of the table it is made on,
+     * with the name it is given, if any, at the same index of names.
+     ****/
+    static class Trace {
+        static final int NEW = 0;       // make table
+        static final int DECL = 1;      // addDecl
+        static final int SCOPE = 2;     // addScope
+        static final int LOCAL = 3;     // lookupLocal
+        static final int GLOBAL = 4;    // lookupGlobal
+        static final int REMOVE = 5;    // removeScope
+        static final int KIND_MASK = 7;
+        static final int TABLE_SHIFT = 3;
+
+        final String name;
+        int[] ops = new int[1024];
+        String[] names = new String[1024];
+        int size = 0;
+
+        // the number of tables, and the declarations made in each scope
+        // of each, innermost last
+        int tables = 0;
+        private final List<Deque<Integer>> scopes =
+            new ArrayList<Deque<Integer>>();
+
+        // the most names declared at once, and the number of calls made
+        // when that was reached
+        int bindings = 0;
+        int peakBindings = 0;
+        int peak = 0;
+
+        // the canonical String of each name
+        private final Map<String, String> canonical =
+            new HashMap<String, String>();
+
+        Trace(String name) {
+            this.name = name;
+        }
+
+        /****
+         * newTable
+         * Adds a NEW call and returns the number of the table it makes.
+         ****/
+        int newTable() {
+            Deque<Integer> decls = new ArrayDeque<Integer>();
+            decls.push(0);
+            scopes.add(decls);
+            add(NEW, tables, null);
+            return tables++;
+        }
+
+        /****
+         * add
+         * Adds a call of the given kind, on the given table, with the given
+         * name (or null).
+         ****/
+        void add(int kind, int table, String name) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            if (name != null) {
+                String c = canonical.putIfAbsent(name, name);
+                name = c == null ? name : c;
+            }
+            ops[size] = kind | table << TABLE_SHIFT;
+            names[size] = name;
+            size++;
+
+            Deque<Integer> decls = scopes.get(table);
+            if (kind == DECL) {
+                decls.push(decls.pop() + 1);
+                if (++bindings > peakBindings) {
+                    peakBindings = bindings;
+                    peak = size;
+                }
+            }
+            else if (kind == SCOPE) {
+                decls.push(0);
+            }
+            else if (kind == REMOVE && !decls.isEmpty()) {
+                bindings -= decls.pop();
+            }
+        }
+
+        // Adds a lookupLocal of name followed by an addDecl of it, as name
+        // analysis does.
+        void declare(int table, String name) {
+            add(LOCAL, table, name);
+            add(DECL, table, name);
+        }
+    }
+
+    /****
+     * deep
+     * Returns a trace of n nested scopes.
+     ****/
+    static Trace deep(int n) {
+        Trace trace = new Trace("deep" + n);
+        Random random = new Random(1);
+        int t = trace.newTable();
+        for (int g = 0; g < 10; g++) {
+            trace.declare(t, "g" + g);
+        }
+        for (int d = 0; d < n; d++) {
+            trace.add(Trace.SCOPE, t, null);
+            trace.declare(t, "v" + d);
+            for (int k = 0; k < 4; k++) {
+                trace.add(Trace.GLOBAL, t, random.nextInt(4) == 0
+                                           ? "g" + random.nextInt(10)
+                                           : "v" + random.nextInt(d + 1));
+            }
+        }
+        for (int d = 0; d < n; d++) {
+            trace.add(Trace.REMOVE, t, null);
+        }
+        return trace;
+    }
+
+    /****
+     * wide
+     * Returns a trace of a scope of n names.
+     ****/
+    static Trace wide(int n) {
+        Trace trace = new Trace("wide" + n);
+        Random random = new Random(1);
+        int t = trace.newTable();
+        trace.add(Trace.SCOPE, t, null);
+        for (int k = 0; k < n; k++) {
+            trace.declare(t, "w" + k);
+        }
+        for (int k = 0; k < 4 * n; k++) {
+            trace.add(Trace.GLOBAL, t, random.nextInt(10) == 0
+                                       ? "u" + random.nextInt(n)
+                                       : "w" + random.nextInt(n));
+        }
+        trace.add(Trace.REMOVE, t, null);
+        return trace;
+    }
+
+    /****
+     * shadow
+     * Returns a trace of n functions whose blocks shadow each other's
+     * names.
+     ****/
+    static Trace shadow(int n) {
+        String[] names = { "x", "y", "z", "i", "j" };
+        Trace trace = new Trace("shadow" + n);
+        int t = trace.newTable();
+        for (String name : names) {
+            trace.declare(t, name);
+        }
+        for (int f = 0; f < n; f++) {
+            trace.declare(t, "f" + f);
+            trace.add(Trace.SCOPE, t, null);
+            for (String name : names) {
+                trace.declare(t, name);
+            }
+            for (int d = 0; d < 8; d++) {
+                trace.add(Trace.SCOPE, t, null);
+                trace.declare(t, "x");
+                trace.declare(t, "y");
+                trace.declare(t, "i");
+                for (int k = 0; k < 4; k++) {
+                    for (String name : names) {
+                        trace.add(Trace.GLOBAL, t, name);
+                    }
+                }
+            }
+            for (int d = 0; d <= 8; d++) {
+                trace.add(Trace.REMOVE, t, null);
+            }
+        }
+        return trace;
+    }
+
+    /****
+     * record
+     * Returns the trace of the calls P6's name analysis makes for the
+     * given program, or null (after saying so) if it does not parse.
+     ****/
+    static Trace record(String name, String text) throws Exception {
+        CompileContext ctx = new CompileContext(nullStream);
+        CompileContext.setCurrent(ctx);
+        TokenBuffer tokens = new TokenBuffer();
+        tokens.fill(new Yylex(new StringReader(text)));
+        ProgramNode root;
+        try {
+            root = new FastParser(tokens).parse();
+        } catch (Exception ex) {
+            root = null;
+        }
+        if (root == null || ctx.err) {
+            System.out.println("  (" + name + " does not parse; skipped)");
+            return null;
+        }
+        Trace trace = new Trace(name);
+        ctx.symTabs = () -> new RecordingSymTab(trace);
+        root.nameAnalysis();
+        return trace;
+    }
+
+    /****
+     * RecordingSymTab
+     * A p6 SymTab that adds each call made to it to a trace.
+     ****/
+    static class RecordingSymTab extends SymTab {
+        private final Trace trace;
+        private final int table;
+
+        RecordingSymTab(Trace trace) {
+            this.trace = trace;
+            table = trace.newTable();
+        }
+
+        public void addDecl(String name, Sym sym)
+            throws SymDuplicateException, SymTabEmptyException {
+            trace.add(Trace.DECL, table, name);
+            super.addDecl(name, sym);
+        }
+
+        public void addScope() {
+            trace.add(Trace.SCOPE, table, null);
+            super.addScope();
+        }
+
+        public Sym lookupLocal(String name) throws SymTabEmptyException {
+            trace.add(Trace.LOCAL, table, name);
+            return super.lookupLocal(name);
+        }
+
+        public Sym lookupGlobal(String name) throws SymTabEmptyException {
+            trace.add(Trace.GLOBAL, table, name);
+            return super.lookupGlobal(name);
+        }
+
+        public void removeScope() throws SymTabEmptyException {
+            trace.add(Trace.REMOVE, table, null);
+            super.removeScope();
+        }
+    }
+
+    /****
+     * benchReplay
+     * Benchmarks replaying trace with the given implementation.
+     ****/
+    static void benchReplay(String impl, Replayer replayer, Trace trace)
+        throws Exception {
+        Object[] tables = new Object[trace.tables];
+        Bench bench = new Bench("replay " + impl + " " + trace.name) {
+            long op() throws Exception {
+                return replayer.replay(trace.ops, trace.names, trace.size,
+                                       tables);
+            }
+        };
+        bench.callsPerOp = trace.size;
+        bench.reportAlloc = true;
+        bench.run(System.out);
+    }
+
+    /****
+     * retained
+     * Returns the heap retained by the tables made by replaying trace with
+     * the given implementation up to its peak (see Bench.retainedBytes).
+     ****/
+    static long retained(Replayer replayer, Trace trace) throws Exception {
+        return Bench.retainedBytes(() -> {
+            Object[] tables = new Object[trace.tables];
+            Bench.sink(replayer.replay(trace.ops, trace.names, trace.peak,
+                                       tables));
+            return tables;
+        });
+    }
+
+    private static void printRetained(String label, long bytes, int names) {
+        System.out.println(String.format("%-48s %12d bytes  %11.1f " +
+                                         "bytes/name",
+                                         label, bytes,
+                                         (double)bytes / names));
+    }
+
+    /****
+     * load
+     * Returns a SymTabReplay for the implementation in dir whose tables
+     * are of the given class.
+     ****/
+    static Replayer load(String dir, String tableClass) throws Exception {
+        ClassLoader loader = new Loader(new File(dir));
+        Constructor<?> make = loader.loadClass(tableClass)
+                                    .getDeclaredConstructor();
+        make.setAccessible(true);
+        Object[] syms = new Object[64];
+        Constructor<?> newSym = loader.loadClass("Sym").getConstructors()[0];
+        Class<?> typeClass = newSym.getParameterTypes()[0];
+        for (int k = 0; k < syms.length; k++) {
+            // p1 and p4 give a Sym its type as a String, p6 as a Type
+            Object type = "int";
+            if (typeClass != String.class) {
+                Constructor<?> newType = loader.loadClass("IntegerType")
+                                               .getDeclaredConstructor();
+                newType.setAccessible(true);
+                type = newType.newInstance();
+            }
+            syms[k] = newSym.newInstance(type);
+        }
+        Constructor<?> replay = loader.loadClass("SymTabReplay")
+            .getDeclaredConstructor(Constructor.class, Object[].class);
+        return (Replayer)replay.newInstance(make, syms);
+    }
+
+    /****
+     * Loader
+     * Defines the classes in one implementation's directory, and its own
+     * SymTabReplay, itself; everything else (java.*, and SymTabBench and
+     * its Replayer and Trace) comes from the loader of this class.
+     ****/
+    static class Loader extends ClassLoader {
+        private final File dir;
+
+        Loader(File dir) {
+            super(SymTabBench.class.getClassLoader());
+            this.dir = dir;
+        }
+
+        protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    File file = name.equals("SymTabReplay")
+                                ? new File(name + ".class")
+                                : new File(dir, name + ".class");
+                    if (!file.isFile()) {
+                        return super.loadClass(name, resolve);
+                    }
+                    try {
+                        byte[] bytes = Files.readAllBytes(file.toPath());
+                        c = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException ex) {
+                        throw new ClassNotFoundException(name, ex);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import java.lang.reflect.*;
+
+/****
+ * SymTabReplay
+ *
+ * Replays a SymTabBench trace against one SymTab implementation.  It is
+ * compiled against p6's SymTab and Sym, but SymTabBench loads it afresh
+ * for each implementation, in a class loader that gives it that
+ * implementation's SymTab, Sym and exceptions (which have the same
+ * methods), so the calls in replay are direct calls to that SymTab and
+ * each implementation has a copy of the loop the JIT compiles for it
+ * alone.
+ ****/
+public class SymTabReplay implements SymTabBench.Replayer {
+    // makes an empty table: the constructor of SymTab or a subclass
+    private final Constructor<?> make;
+
+    // the symbols declared, reused round-robin; the length is a power
+    // of 2
+    private final Object[] syms;
+
+    public SymTabReplay(Constructor<?> make, Object[] syms) {
+        this.make = make;
+        this.syms = syms;
+    }
+
+    public long replay(int[] ops, String[] names, int end, Object[] tables)
+        throws Exception
+    {
+        long found = 0;
+        int mask = syms.length - 1;
+        for (int k = 0; k < end; k++) {
+            int op = ops[k];
+            int t = op >>> SymTabBench.Trace.TABLE_SHIFT;
+            switch (op & SymTabBench.Trace.KIND_MASK) {
+            case SymTabBench.Trace.NEW:
+                tables[t] = make.newInstance();
+                break;
+            case SymTabBench.Trace.DECL:
+                try {
+                    ((SymTab)tables[t]).addDecl(names[k], (Sym)syms[k & mask]);
+                } catch (SymDuplicateException ex) {
+                    found--;
+                }
+                break;
+            case SymTabBench.Trace.SCOPE:
+                ((SymTab)tables[t]).addScope();
+                break;
+            case SymTabBench.Trace.LOCAL:
+                if (((SymTab)tables[t]).lookupLocal(names[k]) != null) {
+                    found++;
+                }
+                break;
+            case SymTabBench.Trace.GLOBAL:
+                if (((SymTab)tables[t]).lookupGlobal(names[k]) != null) {
+                    found++;
+                }
+                break;
+            default:
+                ((SymTab)tables[t]).removeScope();
+                break;
+            }
+        }
+        return found;
+    }
+}
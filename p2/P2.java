@@ -28,9 +28,7 @@ public class P2 {
      * Runs a scanner test on a given input file and writes results to an output
      * file.
      */
-    private static void runTest(String inputFileName, String outputFileName) throws IOException {
-        CharNum.num = 1;
-
+    public static void runTest(String inputFileName, String outputFileName) throws IOException {
         FileReader inFile = new FileReader(inputFileName);
         PrintWriter outFile = new PrintWriter(new FileWriter(outputFileName));
 
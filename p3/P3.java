@@ -15,12 +15,27 @@ import java_cup.runtime.*;
 public class P3 {
     public static void main(String[] args)
         throws IOException // may be thrown by the scanner
+    {
+        int status = run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /****
+     * run
+     * Does everything main does, but returns the exit status instead of
+     * exiting, so that the tests can run it in one JVM (see
+     * test/RunTests.java).
+     ****/
+    public static int run(String[] args)
+        throws IOException // may be thrown by the scanner
     {
         // check for command-line args
         if (args.length != 2) {
             System.err.println("please supply name of file to be parsed " +
 			                   "and name of file for unparsed version.");
-            System.exit(-1);
+            return -1;
         }
 
         // open input file
@@ -29,7 +44,7 @@ public class P3 {
             inFile = new FileReader(args[0]);
         } catch (FileNotFoundException ex) {
             System.err.println("File " + args[0] + " not found.");
-            System.exit(-1);
+            return -1;
         }
 
         // open output file
@@ -39,7 +54,7 @@ public class P3 {
         } catch (FileNotFoundException ex) {
             System.err.println("File " + args[1] +
                                " could not be opened for writing.");
-            System.exit(-1);
+            return -1;
         }
 
         parser P = new parser(new Yylex(inFile));
@@ -53,11 +68,11 @@ public class P3 {
             System.out.println ("program parsed correctly.");
         } catch (Exception ex){
             System.err.println("Exception occured during parse: " + ex);
-            System.exit(-1);
+            return -1;
         }
         ((ASTnode)root.value).unparse(outFile, 0);
         outFile.close();
 
-        return;
+        return 0;
     }
 }
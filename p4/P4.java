@@ -11,10 +11,23 @@ import java_cup.runtime.*;
 
 public class P4 {
     public static void main(String[] args) throws IOException {
+        int status = run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /****
+     * run
+     * Does everything main does, but returns the exit status instead of
+     * exiting, so that the tests can run it in one JVM (see
+     * test/RunTests.java).
+     ****/
+    public static int run(String[] args) throws IOException {
         // check command-line arguments
         if (args.length != 2) {
             System.err.println("Please supply input and output file names");
-            System.exit(-1);
+            return -1;
         }
 
         // open input file
@@ -23,7 +36,7 @@ public class P4 {
             inFile = new FileReader(args[0]);
         } catch (FileNotFoundException ex) {
             System.err.println("File " + args[0] + " not found");
-            System.exit(-1);
+            return -1;
         }
 
         // open output file
@@ -32,7 +45,7 @@ public class P4 {
             outFile = new PrintWriter(args[1]);
         } catch (FileNotFoundException ex) {
             System.err.println("File " + args[1] + " could not be opened for writing");
-            System.exit(-1);
+            return -1;
         }
 
         // create parser
@@ -44,12 +57,12 @@ public class P4 {
             root = P.parse();
         } catch (Exception ex) {
             System.err.println("Exception occurred during parse: " + ex);
-            System.exit(-1);
+            return -1;
         }
 
         // if there were scanning or parsing errors, don't continue
         if (ErrMsg.anyErrors()) {
-            System.exit(-1);
+            return -1;
         }
 
         // do name analysis
@@ -64,6 +77,6 @@ public class P4 {
         }
 
         outFile.close();
-        return;
+        return 0;
     }
 }
@@ -289,7 +289,7 @@ class FormalsListNode extends ASTnode {
     public List<String> getParamTypes() {
         List<String> types = new ArrayList<>();
         for (FormalDeclNode formal : myFormals) {
-            types.add(formal.getType());  // Assumes you’ve implemented getType() in FormalDeclNode
+            types.add(formal.getType());  // Assumes you've implemented getType() in FormalDeclNode
         }
         return types;
     }
@@ -12,12 +12,27 @@ import java_cup.runtime.*;
 public class P5 {
     public static void main(String[] args)
         throws IOException // may be thrown by the scanner
+    {
+        int status = run(args);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /****
+     * run
+     * Does everything main does, but returns the exit status instead of
+     * exiting, so that the tests can run it in one JVM (see
+     * test/RunTests.java).
+     ****/
+    public static int run(String[] args)
+        throws IOException // may be thrown by the scanner
     {
         // check for command-line args
         if (args.length != 2) {
             System.err.println("please supply name of file to be parsed " +
 			                   "and name of file for unparsed version");
-            System.exit(-1);
+            return -1;
         }
 
         // open input file
@@ -26,7 +41,7 @@ public class P5 {
             inFile = new FileReader(args[0]);
         } catch (FileNotFoundException ex) {
             System.err.println("file " + args[0] + " not found");
-            System.exit(-1);
+            return -1;
         }
 
         // open output file
@@ -36,7 +51,7 @@ public class P5 {
         } catch (FileNotFoundException ex) {
             System.err.println("file " + args[1] +
                                " could not be opened for writing");
-            System.exit(-1);
+            return -1;
         }
 
         parser P = new parser(new Yylex(inFile));
@@ -50,7 +65,7 @@ public class P5 {
             System.out.println ("program parsed correctly");
         } catch (Exception ex){
             System.err.println("exception occured during parse: " + ex);
-            System.exit(-1);
+            return -1;
         }
 		
         ((ProgramNode)root.value).nameAnalysis();  // perform name analysis
@@ -61,6 +76,6 @@ public class P5 {
         }
         outFile.close();
 
-        return;
+        return 0;
     }
 }
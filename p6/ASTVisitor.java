@@ -0,0 +1,53 @@
+/**
+ * ASTVisitor
+ *
+ * A pass over the AST written as one class instead of as a method of every
+ * ASTnode class it visits.  ASTWalker calls enter on each node before
+ * walking its children and leave after; a visitor whose enter returns
+ * false is not called for any of the node's descendants, though its leave
+ * is still called for the node itself.
+ *
+ * A visitor is called only for the kinds of node (FlatAst's node kinds)
+ * given to its constructor, or for every node if none are given.  The
+ * walker still walks through the nodes of other kinds, so a visitor for
+ * identifiers, say, sees all of them without handling any other node.
+ * Several visitors can be run in one walk of the tree: for each node they
+ * are called in the order they were given to the walker.
+ */
+abstract class ASTVisitor {
+    // the kinds of node this visitor is called for, one bit per kind
+    final long kinds;
+
+    /**
+     * Makes a visitor that is called for nodes of the given kinds, or for
+     * every node if none are given.
+     */
+    ASTVisitor(int... kinds) {
+        long mask = 0;
+        for (int kind : kinds) {
+            mask |= 1L << kind;
+        }
+        this.kinds = kinds.length == 0 ? -1L : mask;
+    }
+
+    /**
+     * Returns true if this visitor is called for nodes of the given kind.
+     */
+    boolean visits(int kind) {
+        return (kinds & 1L << kind) != 0;
+    }
+
+    /**
+     * Called before the children of node are walked.  Returns false if
+     * they are not to be visited.
+     */
+    boolean enter(ASTnode node) {
+        return true;
+    }
+
+    /**
+     * Called after the children of node have been walked.
+     */
+    void leave(ASTnode node) {
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.*;
+
+/**
+ * ASTWalker
+ *
+ * Walks an AST depth first, calling the enter and leave methods of one or
+ * more ASTVisitors, so that the passes they are run in the one walk.  The
+ * walk keeps its own stack of the nodes it is in, and the index of the
+ * next child of each, rather than recursing, so the depth of the tree is
+ * limited only by the heap.
+ *
+ * When the walker is made it builds a table giving, for each kind of node,
+ * the visitors that are called for it, so a node costs one lookup and a
+ * call to each of those visitors.  If every visitor has declined to visit
+ * the descendants of the nodes it is in, they are not walked at all.
+ */
+class ASTWalker {
+    private final ASTVisitor[] visitors;
+
+    // for each node kind, the indexes in visitors of those called for it
+    private final int[][] table = new int[FlatAst.KINDS][];
+
+    // for each visitor, the depth of the node whose descendants it is not
+    // visiting, or -1 if it is visiting
+    private final int[] skipping;
+
+    // the number of visitors visiting
+    private int active;
+
+    // the nodes from the root to the current one, and the index of the
+    // next child of each to walk
+    private ASTnode[] path = new ASTnode[64];
+    private int[] next = new int[64];
+
+    /**
+     * Makes a walker that runs the given visitors, in that order.
+     */
+    ASTWalker(ASTVisitor... visitors) {
+        this.visitors = visitors.clone();
+        skipping = new int[visitors.length];
+        int[] indexes = new int[visitors.length];
+        for (int kind = 0; kind < FlatAst.KINDS; kind++) {
+            int n = 0;
+            for (int v = 0; v < visitors.length; v++) {
+                if (visitors[v].visits(kind)) {
+                    indexes[n++] = v;
+                }
+            }
+            table[kind] = Arrays.copyOf(indexes, n);
+        }
+    }
+
+    /**
+     * Walks the tree with the given root once with the given visitors.
+     */
+    static void walk(ASTnode root, ASTVisitor... visitors) {
+        new ASTWalker(visitors).walk(root);
+    }
+
+    /**
+     * Walks the tree with the given root.
+     */
+    void walk(ASTnode root) {
+        Arrays.fill(skipping, -1);
+        active = visitors.length;
+        int depth = 0;
+        path[0] = root;
+        next[0] = 0;
+        enter(root, 0);
+        while (depth >= 0) {
+            ASTnode node = path[depth];
+            int k = next[depth];
+            if (active > 0 && k < node.childCount()) {
+                next[depth] = k + 1;
+                depth++;
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                ASTnode child = node.child(k);
+                path[depth] = child;
+                next[depth] = 0;
+                enter(child, depth);
+            }
+            else {
+                leave(node, depth);
+                path[depth] = null;
+                depth--;
+            }
+        }
+    }
+
+    private void enter(ASTnode node, int depth) {
+        for (int v : table[node.kind()]) {
+            if (skipping[v] < 0 && !visitors[v].enter(node)) {
+                skipping[v] = depth;
+                active--;
+            }
+        }
+    }
+
+    private void leave(ASTnode node, int depth) {
+        for (int v : table[node.kind()]) {
+            if (skipping[v] == depth) {
+                skipping[v] = -1;
+                active++;
+            }
+            if (skipping[v] < 0) {
+                visitors[v].leave(node);
+            }
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.Arrays;
+import java.util.zip.*;
+
+/**
+ * AstCache
+ *
+ * A directory of parsed ASTs (P6 --cache-dir), so that a source that has
+ * not changed since it was last compiled is not lexed and parsed again.
+ * Each AST is kept as a FlatAst in a file named for the SHA-256 hash of
+ * the source's bytes, so a change to the source (or a different file with
+ * the same contents) finds the right entry, or none, without comparing
+ * times or names.  Only ASTs of sources with no errors or warnings are
+ * stored, since a hit reports nothing the lexer or parser would have.
+ *
+ * An entry is the following, in big-endian order:
+ *
+ *   MAGIC, VERSION            ints
+ *   the hash of the source    32 bytes
+ *   the names                 an int count, then each as an int length
+ *                             and that many bytes of UTF-8
+ *   the strings               the same
+ *   the nodes                 as FlatAst.write writes them
+ *   a CRC-32                  an int, of all the bytes before it
+ *
+ * An entry is read by memory-mapping it.  One with the wrong magic number,
+ * version, hash or CRC, or that is cut short or does not hold a tree, is
+ * treated as missing, and is replaced when the source has been parsed.
+ * VERSION is to be changed whenever the format or the node kinds change.
+ * An entry is written to a temporary file and renamed, so a compilation
+ * never sees one half written, and several can share a directory.
+ */
+class AstCache {
+    static final int MAGIC = 0x42415354;    // "BAST"
+    static final int VERSION = 1;
+
+    private static final int HASH_BYTES = 32;
+    private static final String SUFFIX = ".ast";
+
+    private final File dir;
+
+    /**
+     * Makes a cache whose entries are in dir, which is made when the first
+     * entry is stored if it does not exist.
+     */
+    AstCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the hash of the given source, which is the key of its entry.
+     */
+    static byte[] hash(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);    // every JVM has SHA-256
+        }
+    }
+
+    /**
+     * Returns the AST of the source with the given hash, with its names and
+     * strings interned in the current context's tables, or null if there
+     * is no good entry for it.
+     */
+    ProgramNode load(byte[] hash) {
+        CompileContext ctx = CompileContext.current();
+        try (FileChannel channel = FileChannel.open(file(hash).toPath(),
+                                                    StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                        channel.size());
+            return read(in, hash, ctx.names, ctx.strings).toProgramNode();
+        } catch (IOException | BufferUnderflowException |
+                 ClassCastException ex) {
+            // missing, unreadable, or bytes that pass the CRC but not the
+            // checks (a node of the wrong class, say)
+            return null;
+        }
+    }
+
+    /**
+     * Stores ast, the AST of the source with the given hash, replacing any
+     * entry for it.  A cache that cannot be written to is left as it is.
+     */
+    void store(byte[] hash, FlatAst ast, InternTable names,
+               InternTable strings) {
+        File tmp = null;
+        try {
+            dir.mkdirs();
+            tmp = File.createTempFile("ast", ".tmp", dir);
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new CheckedOutputStream(
+                         new FileOutputStream(tmp), crc)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+                writeTable(out, names);
+                writeTable(out, strings);
+                ast.write(out);
+                out.flush();
+                out.writeInt((int)crc.getValue());
+            }
+            Files.move(tmp.toPath(), file(hash).toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (IOException ex) {
+            // no entry, so the source is parsed next time too
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the AST with the given root as a FlatAst, with identifiers
+     * and strings in the given tables (the identifiers must already be in
+     * names, with the ids their IdNodes have).  Used to store an AST that
+     * CUP's parser built.
+     */
+    static FlatAst flatten(ProgramNode program, InternTable names,
+                           InternTable strings) {
+        FlatAst ast = new FlatAst(names, strings, 1 << 10);
+        ASTWalker.walk(program, new ASTVisitor() {
+            // the marks of the nodes entered and not yet left
+            private int[] marks = new int[64];
+            private int depth = 0;
+
+            boolean enter(ASTnode node) {
+                if (depth == marks.length) {
+                    marks = Arrays.copyOf(marks, depth * 2);
+                }
+                marks[depth++] = ast.mark();
+                return true;
+            }
+
+            void leave(ASTnode node) {
+                int mark = marks[--depth];
+                int kind = node.kind();
+                switch (kind) {
+                case FlatAst.BOOLEAN:
+                case FlatAst.INTEGER:
+                case FlatAst.VOID:
+                    ast.leaf(kind, 0, 0, 0);
+                    break;
+                case FlatAst.TRUE:
+                case FlatAst.FALSE:
+                    leaf(kind, (ExpNode)node, 0);
+                    break;
+                case FlatAst.ID:
+                    leaf(kind, (ExpNode)node, ((IdNode)node).id());
+                    break;
+                case FlatAst.INT_LIT:
+                    leaf(kind, (ExpNode)node, ((IntLitNode)node).intVal());
+                    break;
+                case FlatAst.STRING_LIT:
+                    leaf(kind, (ExpNode)node,
+                         strings.intern(((StringLitNode)node).strVal()));
+                    break;
+                case FlatAst.DECL_LIST:
+                case FlatAst.STMT_LIST:
+                case FlatAst.EXP_LIST:
+                case FlatAst.FORMALS_LIST:
+                case FlatAst.RETURN_STMT:
+                    ast.node(kind, mark, node.childCount());
+                    break;
+                case FlatAst.VAR_DECL:
+                    ast.node(kind, mark, ((VarDeclNode)node).size());
+                    break;
+                default:
+                    ast.node(kind, mark, 0);
+                    break;
+                }
+            }
+
+            private void leaf(int kind, ExpNode node, int value) {
+                ast.leaf(kind, node.lineNum(), node.charNum(), value);
+            }
+        });
+        ast.trim();
+        return ast;
+    }
+
+    // Returns the file of the entry for the given hash.
+    private File file(byte[] hash) {
+        StringBuilder name = new StringBuilder(HASH_BYTES * 2 + 4);
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                .append(Character.forDigit(b & 0xf, 16));
+        }
+        return new File(dir, name.append(SUFFIX).toString());
+    }
+
+    // Checks the header and CRC of the entry in, which is for the source
+    // with the given hash, and reads its tables into names and strings and
+    // its nodes.
+    private static FlatAst read(ByteBuffer in, byte[] hash,
+                                InternTable names, InternTable strings)
+        throws IOException
+    {
+        int end = in.limit() - 4;
+        if (end < 8 + HASH_BYTES || in.getInt() != MAGIC ||
+            in.getInt() != VERSION) {
+            throw new IOException("not an AST cache entry of this version");
+        }
+        byte[] stored = new byte[HASH_BYTES];
+        in.get(stored);
+        if (!MessageDigest.isEqual(stored, hash)) {
+            throw new IOException("entry is for another source");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.duplicate().position(0).limit(end));
+        if (in.getInt(end) != (int)crc.getValue()) {
+            throw new IOException("entry is corrupt");
+        }
+        in.limit(end);
+        int[] nameIds = readTable(in, names);
+        int[] stringIds = readTable(in, strings);
+        FlatAst ast = FlatAst.read(in, names, strings, nameIds, stringIds);
+        if (in.hasRemaining()) {
+            throw new IOException("entry has bytes after the nodes");
+        }
+        return ast;
+    }
+
+    private static void writeTable(DataOutputStream out, InternTable table)
+        throws IOException
+    {
+        out.writeInt(table.size());
+        for (int id = 0; id < table.size(); id++) {
+            byte[] bytes = table.name(id).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    // Interns the names of a table written by writeTable in table, and
+    // returns the id each has there, by the id it was written with.
+    private static int[] readTable(ByteBuffer in, InternTable table)
+        throws IOException
+    {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / 4) {
+            throw new IOException("bad table size");
+        }
+        int[] ids = new int[count];
+        byte[] bytes = new byte[64];
+        for (int id = 0; id < count; id++) {
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                throw new IOException("bad name length");
+            }
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.get(bytes, 0, length);
+            ids[id] = table.intern(new String(bytes, 0, length,
+                                              StandardCharsets.UTF_8));
+        }
+        return ids;
+    }
+}
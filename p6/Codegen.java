@@ -22,8 +22,8 @@ import java.io.*;
 // **********************************************************************
 
 public class Codegen {
-    // file into which generated code is written
-    public static PrintWriter p = null;    
+    // The file into which generated code is written and the label counter
+    // are kept in the current CompileContext (codeOut and currLabel).
 
     // values of True and False
     public static final String TRUE = "1";
@@ -44,10 +44,6 @@ public class Codegen {
     private static final int MAXLEN = 4;
 
 
-    // for generating labels
-    private static int currLabel = 0;
-
-
     // **********************************************************************
     // **********************************************************************
     // GENERATE OPERATIONS
@@ -61,6 +57,7 @@ public class Codegen {
     // **********************************************************************
     public static void generateWithComment(String opcode, String comment,
                                         String arg1, String arg2, String arg3) {
+        PrintWriter p = countInstruction();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -100,6 +97,7 @@ public class Codegen {
     // **********************************************************************
     public static void generate(String opcode, String arg1, String arg2,
                                 String arg3) {
+        PrintWriter p = countInstruction();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -135,6 +133,7 @@ public class Codegen {
     // **********************************************************************
     public static void generate(String opcode, String arg1, String arg2,
                                 int arg3) {
+        PrintWriter p = countInstruction();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -149,6 +148,7 @@ public class Codegen {
     //    do:     write nicely formatted code (ending with new line)
     // **********************************************************************
     public static void generate(String opcode, String arg1, int arg2) {
+        PrintWriter p = countInstruction();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -166,6 +166,7 @@ public class Codegen {
     // **********************************************************************
     public static void generateIndexed(String opcode, String arg1, String arg2,
                                        int arg3, String comment) {
+        PrintWriter p = countInstruction();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print("\t" + opcode);
@@ -189,6 +190,7 @@ public class Codegen {
     // **********************************************************************
     public static void generateLabeled(String label, String opcode,
                                        String comment, String arg1) {
+        PrintWriter p = countInstruction();
         int space = MAXLEN - opcode.length() + 2;
     
         p.print(label + ":");
@@ -232,6 +234,7 @@ public class Codegen {
     //   generate: L:    # comment
     // **********************************************************************
     public static void genLabel(String label, String comment) {
+        PrintWriter p = CompileContext.current().codeOut;
         p.print(label + ":");
         if (comment != "") 
             p.print("\t\t" + "# " + comment);
@@ -242,12 +245,25 @@ public class Codegen {
         genLabel(label, "");
     }
     
+    // **********************************************************************
+    // countInstruction
+    //    count one more instruction for --stats and return the file into
+    //    which code is written
+    // **********************************************************************
+    private static PrintWriter countInstruction() {
+        CompileContext ctx = CompileContext.current();
+        if (ctx.stats != null) {
+            ctx.stats.instructions++;
+        }
+        return ctx.codeOut;
+    }
+
     // **********************************************************************
     // Return a different label each time:
     //        L0 L1 L2, etc.
     // **********************************************************************
     public static String nextLabel() {
-        Integer k = Integer.valueOf(currLabel++);
+        Integer k = Integer.valueOf(CompileContext.current().currLabel++);
         String tmp = ".L" + k;
         return(tmp);
     }
@@ -0,0 +1,106 @@
+import java.io.*;
+import java.util.function.*;
+
+/**
+ * CompileContext
+ *
+ * This class holds the state that belongs to one compilation of one bach
+ * source file: the error flag and the stream that error messages go to,
+ * the tables of interned identifiers and string literals, the file and
+ * label counter used by Codegen, whether a main function has been seen,
+ * and the statistics gathered for --stats.
+ *
+ * Every thread has a current context.  ErrMsg, Codegen and the AST all
+ * use the current context of the thread they run on, and a scanner uses
+ * the context of the thread that makes it, so several files can be
+ * compiled at the same time on different threads as long as each
+ * compilation runs on one thread with its own context.
+ */
+class CompileContext {
+    // the current context of each thread
+    private static final ThreadLocal<CompileContext> current =
+        new ThreadLocal<CompileContext>() {
+            protected CompileContext initialValue() {
+                return new CompileContext(System.err);
+            }
+        };
+
+    // set by ErrMsg.fatal
+    boolean err = false;
+
+    // where error and warning messages are written
+    PrintStream errStream;
+
+    // collects the messages of ErrMsg (and P6), writing them to errStream
+    // when flushed
+    final DiagnosticSink diagnostics;
+
+    // the identifiers and the string literals seen by the scanner
+    final InternTable names = new InternTable();
+    final InternTable strings = new InternTable();
+
+    // file into which Codegen writes the generated code
+    PrintWriter codeOut = null;
+
+    // for generating labels
+    int currLabel = 0;
+
+    // cleared by name analysis when a function named main is declared
+    boolean noMain = true;
+
+    // counts and timings for --stats; null if not wanted
+    CompileStats stats = null;
+
+    // read the source through a MappedSource (--mmap)
+    boolean mmap = false;
+
+    // lex the whole source into a TokenBuffer before parsing
+    // (--token-buffer)
+    boolean tokenBuffer = false;
+
+    // scan with FastLexer rather than Yylex (--lexer=fast)
+    boolean fastLexer = false;
+
+    // parse with FastParser rather than CUP's parser (--parser=fast)
+    boolean fastParser = false;
+
+    // makes the symbol tables for name analysis: SymTabs, or FlatSymTabs
+    // with --symtab=flat
+    Supplier<SymTab> symTabs = SymTab::new;
+
+    // lex in line-aligned chunks on this many threads, if more than one
+    // (--lex-threads=n)
+    int lexThreads = 1;
+
+    // write the tokens of the source instead of compiling it (--tokens)
+    boolean tokensOnly = false;
+
+    // write the unparsed AST instead of compiling (--unparse)
+    boolean unparseOnly = false;
+
+    // where parsed ASTs are kept and looked for (--cache-dir); null if not
+    // wanted
+    AstCache astCache = null;
+
+    /**
+     * Creates a context whose error messages are written to errStream.
+     */
+    CompileContext(PrintStream errStream) {
+        this.errStream = errStream;
+        diagnostics = new DiagnosticSink(errStream);
+    }
+
+    /**
+     * Returns the current context of the calling thread.
+     */
+    static CompileContext current() {
+        return current.get();
+    }
+
+    /**
+     * Makes ctx the current context of the calling thread.
+     */
+    static void setCurrent(CompileContext ctx) {
+        current.set(ctx);
+    }
+}
@@ -0,0 +1,155 @@
+import java.lang.management.*;
+
+/**
+ * CompileStats
+ *
+ * This class records where the time goes in one compilation: the wall
+ * time, CPU time and bytes allocated by each phase, measured on the thread
+ * doing the compile, and the number of tokens, AST nodes, symbols and
+ * instructions.  It is used by P6 for the --stats option.
+ */
+class CompileStats {
+    // phases (scanning is done on demand by the parser, so it is included
+    // in PARSE)
+    static final int PARSE = 0;
+    static final int NAME_ANALYSIS = 1;
+    static final int TYPE_CHECK = 2;
+    static final int CODE_GEN = 3;
+
+    private static final String[] PHASE_NAMES =
+        { "parse", "nameAnalysis", "typeCheck", "codeGen" };
+
+    private static final ThreadMXBean threads =
+        ManagementFactory.getThreadMXBean();
+
+    // per phase; -1 if the phase was not run or could not be measured
+    private long[] wall = { -1, -1, -1, -1 };
+    private long[] cpu = { -1, -1, -1, -1 };
+    private long[] alloc = { -1, -1, -1, -1 };
+
+    // values at the start of the current phase
+    private long startWall, startCpu, startAlloc;
+
+    // counts
+    int tokens;
+    int astNodes;
+    int symbols;
+    int instructions;
+
+    /**
+     * Marks the start of a phase.
+     */
+    void begin() {
+        startAlloc = allocatedBytes();
+        startCpu = cpuTime();
+        startWall = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of the given phase, which began at the last call
+     * of begin.
+     */
+    void end(int phase) {
+        wall[phase] = System.nanoTime() - startWall;
+        long now = cpuTime();
+        cpu[phase] = (now < 0 || startCpu < 0) ? -1 : now - startCpu;
+        now = allocatedBytes();
+        alloc[phase] = (now < 0 || startAlloc < 0) ? -1 : now - startAlloc;
+    }
+
+    /**
+     * Returns the stats in human-readable form, one line per phase.
+     */
+    String toText(String file) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("stats for ").append(file).append('\n');
+        sb.append(String.format("  %-13s %10s %10s %14s%n",
+                                "phase", "wall ms", "cpu ms", "alloc bytes"));
+        for (int k = 0; k < PHASE_NAMES.length; k++) {
+            if (wall[k] < 0) {
+                continue;   // not run
+            }
+            sb.append(String.format("  %-13s %10s %10s %14s%n", PHASE_NAMES[k],
+                                    millis(wall[k]), millis(cpu[k]),
+                                    alloc[k] < 0 ? "-" : "" + alloc[k]));
+        }
+        sb.append("  tokens ").append(tokens)
+          .append(", AST nodes ").append(astNodes)
+          .append(", symbols ").append(symbols)
+          .append(", instructions ").append(instructions).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * Returns the stats as a single-line JSON object.  Times are in
+     * nanoseconds; phases that were not run are left out and values that
+     * could not be measured are -1.
+     */
+    String toJson(String file) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"file\":\"").append(jsonEscape(file)).append("\",");
+        sb.append("\"phases\":{");
+        boolean first = true;
+        for (int k = 0; k < PHASE_NAMES.length; k++) {
+            if (wall[k] < 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append('"').append(PHASE_NAMES[k]).append("\":{")
+              .append("\"wallNanos\":").append(wall[k])
+              .append(",\"cpuNanos\":").append(cpu[k])
+              .append(",\"allocBytes\":").append(alloc[k]).append('}');
+        }
+        sb.append("},");
+        sb.append("\"tokens\":").append(tokens)
+          .append(",\"astNodes\":").append(astNodes)
+          .append(",\"symbols\":").append(symbols)
+          .append(",\"instructions\":").append(instructions).append('}');
+        return sb.toString();
+    }
+
+    static String jsonEscape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < s.length(); k++) {
+            char c = s.charAt(k);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            }
+            else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int)c));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.format("%.3f", nanos / 1e6);
+    }
+
+    private static long cpuTime() {
+        if (!threads.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return threads.getCurrentThreadCpuTime();
+    }
+
+    private static long allocatedBytes() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunThreads =
+            (com.sun.management.ThreadMXBean)threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported() ||
+            !sunThreads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sunThreads.getThreadAllocatedBytes(
+                                           Thread.currentThread().getId());
+    }
+}
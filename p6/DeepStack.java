@@ -0,0 +1,88 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * DeepStack
+ *
+ * Runs a compilation on a thread of its own with a stack big enough for
+ * the source.  The parsers build the AST without recursion (CUP's parser
+ * keeps its own stack, FlatAst.toProgramNode and ASTWalker theirs), but
+ * FastParser and the passes written as ASTnode methods (unparse,
+ * nameAnalysis, typeCheck, codeGen) recurse once or twice for each level
+ * of nesting in the source, so a machine-generated program with a long
+ * a + b + c + ... chain or thousands of nested loops overflows a thread's
+ * usual 1MB stack.
+ *
+ * A level of nesting takes at least one char of source and, in the worst
+ * case measured (nested parentheses with --parser=fast), about 160 bytes
+ * of stack, so a source of n chars is given STACK_PER_CHAR * n bytes, up
+ * to MAX_STACK; a source small enough to fit in SMALL_STACK is compiled on
+ * the calling thread.  The stack is only reserved, not allocated, until
+ * it is used, but the system will not reserve any amount, so a source of
+ * more than about MAX_STACK / STACK_PER_CHAR chars can still nest too
+ * deeply; P6 reports that as an error rather than failing.
+ */
+class DeepStack {
+    static final long STACK_PER_CHAR = 512;
+    static final long SMALL_STACK = 256 << 10;
+    static final long MAX_STACK = 1L << 30;
+
+    /**
+     * Returns the stack size to compile a source of the given number of
+     * chars (or bytes) with, or 0 if the calling thread's will do.
+     */
+    static long stackSize(long chars) {
+        long size = chars * STACK_PER_CHAR;
+        if (size <= SMALL_STACK) {
+            return 0;
+        }
+        return Math.min(size, MAX_STACK);
+    }
+
+    /**
+     * Returns the result of task, called on a new thread with the given
+     * stack size, or on the calling thread if stackSize is 0.  The new
+     * thread starts with the caller's CompileContext as its current one.
+     * What task throws is rethrown.
+     */
+    static <T> T call(Callable<T> task, long stackSize) throws IOException {
+        if (stackSize == 0) {
+            return run(task);
+        }
+        CompileContext ctx = CompileContext.current();
+        FutureTask<T> future = new FutureTask<T>(() -> {
+            CompileContext.setCurrent(ctx);
+            return task.call();
+        });
+        Thread thread = new Thread(null, future, "compiler", stackSize);
+        thread.start();
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            thread.interrupt();
+            throw new InterruptedIOException("interrupted while compiling");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static <T> T run(Callable<T> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new IOException(ex);
+        }
+    }
+}
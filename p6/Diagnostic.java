@@ -0,0 +1,231 @@
+/**
+ * Diagnostic
+ *
+ * One error, warning or note reported while compiling a bach source: its
+ * severity, position (line and column, both 0 if it has none), code,
+ * message and the phase that produced it.
+ *
+ * Each call to ErrMsg gives the code of its error or warning: a letter
+ * for the phase that reports it (L lex, P parse, N nameAnalysis, T
+ * typeCheck) and a number, so the phase is the code's.  Messages that are
+ * not errors or warnings about the source, such as "file ... not found",
+ * are notes, with no code, from the "driver" phase.
+ */
+final class Diagnostic {
+    // severities
+    static final int ERROR = 0;
+    static final int WARNING = 1;
+    static final int NOTE = 2;
+
+    private static final String[] SEVERITY_NAMES =
+        { "error", "warning", "note" };
+
+    // phases, in the order they run (the scanner runs with the parser)
+    static final String LEX = "lex";
+    static final String PARSE = "parse";
+    static final String NAME_ANALYSIS = "nameAnalysis";
+    static final String TYPE_CHECK = "typeCheck";
+    static final String DRIVER = "driver";
+
+    // each code and what its message says, for the rules of a SARIF log
+    static final String[][] CODES = {
+        { "L001", "ignoring illegal character" },
+        { "L002", "ignoring string literal: unterminated" },
+        { "L003", "ignoring string literal: contains bad escaped character" },
+        { "L004", "ignoring string literal: contains bad escaped character " +
+          "and unterminated" },
+        { "L005", "using max integer value: literal too large" },
+
+        { "P001", "Syntax error" },
+        { "P002", "Syntax error at end of file" },
+
+        { "N001", "Identifier multiply-declared" },
+        { "N002", "Identifier undeclared" },
+        { "N003", "Non-function declared void" },
+        { "N004", "Name of struct type invalid" },
+        { "N005", "Colon-access of non-struct type" },
+        { "N006", "Name of struct field invalid" },
+        { "N007", "No main function" },
+
+        { "T001", "Attempt to write function name" },
+        { "T002", "Attempt to write struct name" },
+        { "T003", "Attempt to write struct variable" },
+        { "T004", "Attempt to write void" },
+        { "T005", "Attempt to read function name" },
+        { "T006", "Attempt to read struct name" },
+        { "T007", "Attempt to read struct variable" },
+        { "T008", "Attempt to call non-function" },
+        { "T009", "Wrong # of args in function call" },
+        { "T010", "Actual type and formal type do not match" },
+        { "T011", "Missing return value" },
+        { "T012", "Return value in void function" },
+        { "T013", "Bad return value type" },
+        { "T014", "Arithmetic operator with non-integer operand" },
+        { "T015", "Relational operator with non-integer operand" },
+        { "T016", "Logical operator with non-boolean operand" },
+        { "T017", "Non-boolean expression in if condition" },
+        { "T018", "Non-boolean expression in while condition" },
+        { "T019", "Type mismatch" },
+        { "T020", "Equality operator applied to void function calls" },
+        { "T021", "Equality operator applied to function names" },
+        { "T022", "Equality operator applied to struct names" },
+        { "T023", "Equality operator applied to struct variables" },
+        { "T024", "Assignment to function name" },
+        { "T025", "Assignment to struct name" },
+        { "T026", "Assignment to struct variable" },
+    };
+
+    final int severity;
+    final int line;
+    final int column;
+    final String code;      // null for a note
+    final String message;
+    final String phase;
+
+    Diagnostic(int severity, int line, int column, String code,
+               String message, String phase) {
+        this.severity = severity;
+        this.line = line;
+        this.column = column;
+        this.code = code;
+        this.message = message;
+        this.phase = phase;
+    }
+
+    /**
+     * Returns the diagnostic for an error or warning reported by ErrMsg,
+     * with the given code, in the phase the code is for.
+     * @throws IllegalArgumentException if code is not one of a phase
+     */
+    static Diagnostic of(int severity, int line, int column, String code,
+                         String msg) {
+        return new Diagnostic(severity, line, column, code, msg,
+                              phaseOf(code));
+    }
+
+    /**
+     * Returns the phase the given code is for.
+     * @throws IllegalArgumentException if code is not one of a phase
+     */
+    static String phaseOf(String code) {
+        switch (code.charAt(0)) {
+        case 'L':
+            return LEX;
+        case 'P':
+            return PARSE;
+        case 'N':
+            return NAME_ANALYSIS;
+        case 'T':
+            return TYPE_CHECK;
+        default:
+            throw new IllegalArgumentException("bad code: " + code);
+        }
+    }
+
+    /**
+     * Returns a note: a message with no position or code.
+     */
+    static Diagnostic note(String phase, String msg) {
+        return new Diagnostic(NOTE, 0, 0, null, msg, phase);
+    }
+
+    String severityName() {
+        return SEVERITY_NAMES[severity];
+    }
+
+    /**
+     * Returns the rank of the phase: diagnostics are ordered by it before
+     * their position.  The scanner runs with the parser, so their
+     * diagnostics are ordered together.
+     */
+    int phaseRank() {
+        switch (phase) {
+        case LEX:
+        case PARSE:
+            return 0;
+        case NAME_ANALYSIS:
+            return 1;
+        case TYPE_CHECK:
+            return 2;
+        default:
+            return 3;
+        }
+    }
+
+    /**
+     * Returns the diagnostic as ErrMsg has always printed it:
+     * "line:column ****ERROR**** message", or just the message for a note.
+     */
+    String toText() {
+        switch (severity) {
+        case ERROR:
+            return line + ":" + column + " ****ERROR**** " + message;
+        case WARNING:
+            return line + ":" + column + " ****WARNING**** " + message;
+        default:
+            return message;
+        }
+    }
+
+    /**
+     * Returns the diagnostic as a JSON object on one line, with the name
+     * of the source file it is about.
+     */
+    String toJson(String file) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"file\":");
+        string(sb, file);
+        sb.append(",\"severity\":\"").append(severityName()).append('"');
+        sb.append(",\"line\":").append(line);
+        sb.append(",\"column\":").append(column);
+        sb.append(",\"code\":");
+        string(sb, code);
+        sb.append(",\"message\":");
+        string(sb, message);
+        sb.append(",\"phase\":\"").append(phase).append("\"}");
+        return sb.toString();
+    }
+
+    /**
+     * Returns the diagnostic as a SARIF result object about the given
+     * source file.
+     */
+    String toSarif(String file) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        if (code != null) {
+            sb.append("\"ruleId\":\"").append(code).append("\",");
+        }
+        sb.append("\"level\":\"").append(severityName()).append('"');
+        sb.append(",\"message\":{\"text\":");
+        string(sb, message);
+        sb.append('}');
+        if (file != null) {
+            sb.append(",\"locations\":[{\"physicalLocation\":{");
+            sb.append("\"artifactLocation\":{\"uri\":");
+            string(sb, file);
+            sb.append('}');
+            if (line > 0) {
+                sb.append(",\"region\":{\"startLine\":").append(line);
+                if (column > 0) {
+                    sb.append(",\"startColumn\":").append(column);
+                }
+                sb.append('}');
+            }
+            sb.append("}}]");
+        }
+        sb.append(",\"properties\":{\"phase\":\"").append(phase)
+          .append("\"}}");
+        return sb.toString();
+    }
+
+    // appends s as a JSON string, or null
+    private static void string(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+        }
+        else {
+            sb.append('"').append(CompileStats.jsonEscape(s)).append('"');
+        }
+    }
+}
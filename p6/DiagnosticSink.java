@@ -0,0 +1,235 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * DiagnosticSink
+ *
+ * Collects the Diagnostics of one compilation and writes them to the
+ * error stream all at once when flushed, instead of with one println, and
+ * so one write to the stream, each.  A garbage input can have an error
+ * for every character.
+ *
+ * Diagnostics may be reported from several threads at once.  However they
+ * arrive, they are written in a fixed order: by phase (the scanner's and
+ * the parser's together), then by line and column, then in the order they
+ * were reported.  A diagnostic with no position (line 0) is kept just
+ * after the one reported before it.
+ *
+ * format says how they are written: "text" (the "line:char ****ERROR****
+ * msg" lines of ErrMsg), "json" (one JSON object per line) or "sarif" (a
+ * SARIF 2.1.0 log, on one line, for each flush).
+ *
+ * If maxErrors is more than 0, the error that reaches that count is
+ * followed by a note saying so, and ErrorLimitException is thrown to stop
+ * the compilation; anything reported after that is dropped.
+ */
+class DiagnosticSink {
+    // the most errors to report, or 0 for no limit
+    int maxErrors = 0;
+
+    // "text", "json" or "sarif"
+    String format = "text";
+
+    // the name of the source file the diagnostics are about, for json and
+    // sarif
+    String file = null;
+
+    private final PrintStream out;
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private int errors = 0;
+    private int reported = 0;
+    private boolean stopped = false;
+
+    /**
+     * Creates a sink that writes to out.
+     */
+    DiagnosticSink(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Records an error with the given code (see Diagnostic).
+     * @throws ErrorLimitException if this is error number maxErrors
+     */
+    synchronized void error(int lineNum, int charNum, String code,
+                            String msg) {
+        add(Diagnostic.of(Diagnostic.ERROR, lineNum, charNum, code, msg));
+    }
+
+    /**
+     * Records a warning with the given code.
+     */
+    synchronized void warn(int lineNum, int charNum, String code,
+                           String msg) {
+        add(Diagnostic.of(Diagnostic.WARNING, lineNum, charNum, code, msg));
+    }
+
+    /**
+     * Records a note from the given phase, such as a message about a file
+     * that could not be opened.
+     */
+    synchronized void note(String phase, String msg) {
+        add(Diagnostic.note(phase, msg));
+    }
+
+    /**
+     * Records everything recorded in other (and not yet flushed), in the
+     * order other would write it.
+     * @throws ErrorLimitException if the errors reach maxErrors
+     */
+    void addAll(DiagnosticSink other) {
+        List<Diagnostic> diagnostics = other.diagnostics();
+        synchronized (this) {
+            for (Diagnostic d : diagnostics) {
+                add(d);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of errors recorded.
+     */
+    synchronized int errorCount() {
+        return errors;
+    }
+
+    /**
+     * Returns what has been recorded since the last flush, in order.
+     */
+    synchronized List<Diagnostic> diagnostics() {
+        Collections.sort(entries);
+        List<Diagnostic> list = new ArrayList<Diagnostic>(entries.size());
+        for (Entry e : entries) {
+            list.add(e.diagnostic);
+        }
+        return list;
+    }
+
+    /**
+     * Writes what has been recorded since the last flush to the stream, in
+     * one go.  In sarif format a log is written even if it is empty.
+     */
+    void flush() {
+        List<Diagnostic> diagnostics;
+        synchronized (this) {
+            diagnostics = diagnostics();
+            entries.clear();
+        }
+        if (diagnostics.isEmpty() && !format.equals("sarif")) {
+            return;
+        }
+
+        StringBuilder text = new StringBuilder(diagnostics.size() * 64);
+        String nl = System.lineSeparator();
+        if (format.equals("sarif")) {
+            text.append(toSarif(diagnostics)).append(nl);
+        }
+        else {
+            for (Diagnostic d : diagnostics) {
+                if (format.equals("json")) {
+                    text.append(d.toJson(file));
+                }
+                else {
+                    text.append(d.toText());
+                }
+                text.append(nl);
+            }
+        }
+        out.print(text);
+        out.flush();
+    }
+
+    // Returns a SARIF log of the given diagnostics, with a rule for each
+    // code among them.
+    private String toSarif(List<Diagnostic> diagnostics) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"version\":\"2.1.0\",\"$schema\":")
+          .append("\"https://json.schemastore.org/sarif-2.1.0.json\",")
+          .append("\"runs\":[{\"tool\":{\"driver\":{\"name\":\"P6\",")
+          .append("\"rules\":[");
+        Set<String> codes = new TreeSet<String>();
+        for (Diagnostic d : diagnostics) {
+            if (d.code != null) {
+                codes.add(d.code);
+            }
+        }
+        boolean first = true;
+        for (String[] entry : Diagnostic.CODES) {
+            if (codes.contains(entry[0])) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append("{\"id\":\"").append(entry[0])
+                  .append("\",\"shortDescription\":{\"text\":\"")
+                  .append(CompileStats.jsonEscape(entry[1])).append("\"}}");
+            }
+        }
+        sb.append("]}},\"results\":[");
+        for (int k = 0; k < diagnostics.size(); k++) {
+            if (k > 0) {
+                sb.append(',');
+            }
+            sb.append(diagnostics.get(k).toSarif(file));
+        }
+        sb.append("]}]}");
+        return sb.toString();
+    }
+
+    private void add(Diagnostic d) {
+        if (stopped) {
+            return;
+        }
+        Entry last = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+        entries.add(new Entry(d, reported++, last));
+        if (d.severity == Diagnostic.ERROR) {
+            errors++;
+            if (errors == maxErrors) {
+                ErrorLimitException ex = new ErrorLimitException(maxErrors);
+                entries.add(new Entry(Diagnostic.note(Diagnostic.DRIVER,
+                                                      ex.getMessage()),
+                                      reported++, null));
+                stopped = true;
+                throw ex;
+            }
+        }
+    }
+
+    // A diagnostic and where it goes in the order: its phase's rank, its
+    // position (or that of the entry before it, if it has none) and when
+    // it was reported.
+    private static class Entry implements Comparable<Entry> {
+        final Diagnostic diagnostic;
+        final int rank;
+        final int line;
+        final int column;
+        final int seq;
+
+        Entry(Diagnostic d, int seq, Entry before) {
+            diagnostic = d;
+            rank = d.phaseRank();
+            if (d.line == 0 && before != null) {
+                line = before.line;
+                column = before.column;
+            }
+            else {
+                line = d.line;
+                column = d.column;
+            }
+            this.seq = seq;
+        }
+
+        public int compareTo(Entry e) {
+            if (rank != e.rank) {
+                return Integer.compare(rank, e.rank);
+            }
+            if (line != e.line) {
+                return Integer.compare(line, e.line);
+            }
+            if (column != e.column) {
+                return Integer.compare(column, e.column);
+            }
+            return Integer.compare(seq, e.seq);
+        }
+    }
+}
@@ -2,35 +2,43 @@
  * ErrMsg
  *
  * This class is used to generate warning and fatal error messages.
+ * Messages are collected by the DiagnosticSink of the current
+ * CompileContext, which writes them to its error stream, and the err flag
+ * is kept there too, so each compilation has its own.
  */
 class ErrMsg {
-    private static boolean err = false;
-
     /**
      * Generates a fatal error message.
      * @param lineNum line number for error location
      * @param charNum character number (i.e., column) for error location
+     * @param code the error's code, whose letter is the reporting phase's
+     *        (see Diagnostic)
      * @param msg associated message for error
+     * @throws ErrorLimitException if this error reaches the maximum number
+     *         of errors of the compilation
      */
-    static void fatal(int lineNum, int charNum, String msg) {
-        err = true;
-        System.err.println(lineNum + ":" + charNum + " ****ERROR**** " + msg);
+    static void fatal(int lineNum, int charNum, String code, String msg) {
+        CompileContext ctx = CompileContext.current();
+        ctx.err = true;
+        ctx.diagnostics.error(lineNum, charNum, code, msg);
     }
 
     /**
      * Generates a warning message.
      * @param lineNum line number for warning location
      * @param charNum character number (i.e., column) for warning location
+     * @param code the warning's code
      * @param msg associated message for warning
      */
-    static void warn(int lineNum, int charNum, String msg) {
-        System.err.println(lineNum + ":" + charNum + " ****WARNING**** " + msg);
+    static void warn(int lineNum, int charNum, String code, String msg) {
+        CompileContext.current().diagnostics.warn(lineNum, charNum, code,
+                                                  msg);
     }
 
     /**
      * Returns the err flag.
      */
     static boolean getErr() {
-        return err;
+        return CompileContext.current().err;
     }
 }
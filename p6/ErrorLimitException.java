@@ -0,0 +1,14 @@
+/**
+ * ErrorLimitException
+ *
+ * Thrown by DiagnosticSink when a compilation reaches its maximum number
+ * of errors (--max-errors), to stop it there.
+ */
+public class ErrorLimitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    ErrorLimitException(int maxErrors) {
+        super("stopping after " + maxErrors +
+              (maxErrors == 1 ? " error" : " errors"));
+    }
+}
@@ -0,0 +1,453 @@
+import java.io.*;
+import java.util.Arrays;
+import java_cup.runtime.*;
+
+/**
+ * FastLexer
+ *
+ * A hand-written scanner for bach (P6 --lexer=fast).  It finds the same
+ * tokens as Yylex, with the same line and character numbers, values and
+ * error messages, but does not run the JLex DFA: the whole source is read
+ * into one char array, and each token is found by a switch on its first
+ * character.  An identifier is scanned by one loop over a table of the
+ * characters it may contain and is then looked up in a perfect hash of the
+ * keywords, where Yylex has a separate rule, and DFA path, per keyword.
+ * As in Yylex, nextToken makes no objects except for new names and error
+ * messages.
+ *
+ * Yylex has no rule for a carriage return or for characters outside ASCII
+ * (outside string literals and comments), and throws an Error if it meets
+ * one; FastLexer reports them as illegal characters instead.
+ */
+class FastLexer implements TokenScanner {
+    // the keywords and their token kinds
+    private static final String[] KEYWORD_NAMES = {
+        "void", "boolean", "integer", "TRUE", "FALSE", "struct", "input",
+        "disp", "if", "else", "while", "return"
+    };
+    private static final int[] KEYWORD_KINDS = {
+        sym.VOID, sym.BOOLEAN, sym.INTEGER, sym.TRUE, sym.FALSE, sym.STRUCT,
+        sym.INPUT, sym.DISPLAY, sym.IF, sym.ELSE, sym.WHILE, sym.RETURN
+    };
+
+    // the keywords by hash (see keyword), with null in the free slots
+    private static final char[][] KEYWORDS = new char[32][];
+    private static final int[] KINDS = new int[32];
+
+    // the ASCII characters that may start, and continue, an identifier
+    private static final boolean[] ID_START = new boolean[128];
+    private static final boolean[] ID_PART = new boolean[128];
+
+    static {
+        for (int k = 0; k < KEYWORD_NAMES.length; k++) {
+            char[] word = KEYWORD_NAMES[k].toCharArray();
+            int h = hash(word, 0, word.length);
+            if (KEYWORDS[h] != null) {
+                throw new Error("keyword hash is not perfect");
+            }
+            KEYWORDS[h] = word;
+            KINDS[h] = KEYWORD_KINDS[k];
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            ID_START[c] = ID_PART[c] = true;
+            ID_START[c - 'a' + 'A'] = ID_PART[c - 'a' + 'A'] = true;
+        }
+        ID_START['_'] = ID_PART['_'] = true;
+        for (char c = '0'; c <= '9'; c++) {
+            ID_PART[c] = true;
+        }
+    }
+
+    private final Reader in;
+
+    // the source, followed by a 0 so that scanning a run of characters
+    // needs no bounds check; null until the first token is asked for
+    private char[] buf = null;
+    private int end;        // the length of the source
+    private int pos = 0;    // where the next token starts
+
+    // the line, and character number on the line, at pos
+    private int line = 1;
+    private int charNum = 1;
+
+    // Identifiers and string literals are interned in the tables of the
+    // compilation the scanner is made for.
+    private final InternTable names = CompileContext.current().names;
+    private final InternTable strings = CompileContext.current().strings;
+
+    // The last token found by nextToken: its line, its character number and
+    // its value, as in Yylex.
+    private int tokenLine;
+    private int tokenChar;
+    private int tokenValue;
+
+    FastLexer(Reader in) {
+        this(in, 1);
+    }
+
+    /**
+     * Makes a scanner for part of a source that starts at the beginning
+     * of the given line.
+     */
+    FastLexer(Reader in, int firstLine) {
+        this.in = in;
+        line = firstLine;
+    }
+
+    /**
+     * Returns the next token as a Symbol whose value is a TokenVal, for the
+     * parser.
+     */
+    public Symbol next_token() throws IOException {
+        int kind = nextToken();
+        switch (kind) {
+        case sym.EOF:
+            return new Symbol(sym.EOF);
+        case sym.ID:
+            return new Symbol(kind, new IdTokenVal(tokenLine, tokenChar,
+                                                   names.name(tokenValue),
+                                                   tokenValue));
+        case sym.INTLIT:
+            return new Symbol(kind, new IntLitTokenVal(tokenLine, tokenChar,
+                                                       tokenValue));
+        case sym.STRINGLIT:
+            return new Symbol(kind, new StrLitTokenVal(tokenLine, tokenChar,
+                                                  strings.name(tokenValue)));
+        default:
+            return new Symbol(kind, new TokenVal(tokenLine, tokenChar));
+        }
+    }
+
+    public int fill(TokenBuffer buf, int max) throws IOException {
+        int n = 0;
+        while (n < max && !buf.atEOF()) {
+            buf.add(nextToken(), tokenLine, tokenChar, tokenValue);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Finds the next token, reporting any errors before it, and returns its
+     * kind; its line, character number and value are left in tokenLine,
+     * tokenChar and tokenValue.  Returns sym.EOF at the end of the source,
+     * and from then on.
+     */
+    int nextToken() throws IOException {
+        if (buf == null) {
+            read();
+        }
+        char[] buf = this.buf;
+        int p = pos;
+        while (true) {
+            if (p == end) {
+                return token(sym.EOF, p, p, 0);
+            }
+            int start = p;
+            char c = buf[p];
+            switch (c) {
+            case ' ':
+            case '\t':
+                do {
+                    p++;
+                } while (buf[p] == ' ' || buf[p] == '\t');
+                charNum += p - start;
+                continue;
+
+            case '\n':
+                // as in JLex, "\r\n" is one line break, not two
+                if (p == 0 || buf[p - 1] != '\r') {
+                    line++;
+                }
+                charNum = 1;
+                p++;
+                continue;
+
+            case '%':
+                if (buf[p + 1] != '%') {
+                    break;
+                }
+                p = comment(p);
+                continue;
+
+            case '#':
+                p = comment(p);
+                continue;
+
+            case '"':
+                pos = p;
+                if (string() == sym.STRINGLIT) {
+                    return sym.STRINGLIT;
+                }
+                p = pos;
+                continue;
+
+            case '{': return token(sym.LCURLY, p, p + 1, 0);
+            case '}': return token(sym.RCURLY, p, p + 1, 0);
+            case '(': return token(sym.LPAREN, p, p + 1, 0);
+            case ')': return token(sym.RPAREN, p, p + 1, 0);
+            case '[': return token(sym.LSQUARE, p, p + 1, 0);
+            case ']': return token(sym.RSQUARE, p, p + 1, 0);
+            case ':': return token(sym.COLON, p, p + 1, 0);
+            case ',': return token(sym.COMMA, p, p + 1, 0);
+            case '.': return token(sym.DOT, p, p + 1, 0);
+            case '&': return token(sym.AND, p, p + 1, 0);
+            case '|': return token(sym.OR, p, p + 1, 0);
+            case '*': return token(sym.TIMES, p, p + 1, 0);
+            case '/': return token(sym.DIVIDE, p, p + 1, 0);
+
+            case '-':
+                if (buf[p + 1] == '>') {
+                    return token(sym.READOP, p, p + 2, 0);
+                }
+                if (buf[p + 1] == '-') {
+                    return token(sym.MINUSMINUS, p, p + 2, 0);
+                }
+                return token(sym.MINUS, p, p + 1, 0);
+
+            case '+':
+                if (buf[p + 1] == '+') {
+                    return token(sym.PLUSPLUS, p, p + 2, 0);
+                }
+                return token(sym.PLUS, p, p + 1, 0);
+
+            case '<':
+                if (buf[p + 1] == '-') {
+                    return token(sym.WRITEOP, p, p + 2, 0);
+                }
+                if (buf[p + 1] == '=') {
+                    return token(sym.LESSEQ, p, p + 2, 0);
+                }
+                return token(sym.LESS, p, p + 1, 0);
+
+            case '>':
+                if (buf[p + 1] == '=') {
+                    return token(sym.GREATEREQ, p, p + 2, 0);
+                }
+                return token(sym.GREATER, p, p + 1, 0);
+
+            case '=':
+                if (buf[p + 1] == '=') {
+                    return token(sym.EQUALS, p, p + 2, 0);
+                }
+                return token(sym.ASSIGN, p, p + 1, 0);
+
+            case '^':
+                if (buf[p + 1] == '=') {
+                    return token(sym.NOTEQ, p, p + 2, 0);
+                }
+                return token(sym.NOT, p, p + 1, 0);
+
+            default:
+                if (c >= '0' && c <= '9') {
+                    return intLit(p);
+                }
+                if (c < 128 && ID_START[c]) {
+                    do {
+                        p++;
+                    } while ((c = buf[p]) < 128 && ID_PART[c]);
+                    int len = p - start;
+                    int kind = keyword(buf, start, len);
+                    if (kind != sym.ID) {
+                        return token(kind, start, p, 0);
+                    }
+                    return token(sym.ID, start, p,
+                                 names.intern(buf, start, len));
+                }
+                break;
+            }
+
+            // anything else is an illegal character
+            ErrMsg.fatal(line, charNum, "L001",
+                         "ignoring illegal character: " + c);
+            charNum++;
+            if (c == '\r') {
+                line++;
+            }
+            p++;
+        }
+    }
+
+    // Skips the comment at p (# or %%) and returns the index of the newline
+    // that ends it, or of the end of the source.  The character number is
+    // reset at the newline anyway.
+    private int comment(int p) {
+        while (p < end && buf[p] != '\n') {
+            if (buf[p] == '\r') {
+                line++;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    // Records the token from start to p as the last token, with the given
+    // value, moves past it and returns its kind.
+    private int token(int kind, int start, int p, int value) {
+        tokenLine = line;
+        tokenChar = charNum;
+        tokenValue = value;
+        charNum += p - start;
+        pos = p;
+        return kind;
+    }
+
+    // Returns the kind of the keyword made of the len chars of buf at
+    // start, or sym.ID if they are not a keyword.  The hash, of the first
+    // char and the length, is different for every keyword, but not for
+    // every word (Void has the hash of void), so the whole word is compared.
+    private static int keyword(char[] buf, int start, int len) {
+        int h = hash(buf, start, len);
+        char[] word = KEYWORDS[h];
+        if (word == null || word.length != len) {
+            return sym.ID;
+        }
+        for (int k = 0; k < len; k++) {
+            if (word[k] != buf[start + k]) {
+                return sym.ID;
+            }
+        }
+        return KINDS[h];
+    }
+
+    private static int hash(char[] buf, int start, int len) {
+        return (buf[start] + 3 * len) & 31;
+    }
+
+    // Scans the integer literal at p; a value too large for an int is
+    // replaced by Integer.MAX_VALUE with a warning, as in Yylex.
+    private int intLit(int p) {
+        int start = p;
+        long val = 0;
+        char c = buf[p];
+        do {
+            if (val <= Integer.MAX_VALUE) {
+                val = val * 10 + (c - '0');
+            }
+            c = buf[++p];
+        } while (c >= '0' && c <= '9');
+
+        if (val > Integer.MAX_VALUE) {
+            ErrMsg.warn(line, charNum, "L005",
+                        "using max integer value: literal too large");
+            val = Integer.MAX_VALUE;
+        }
+        return token(sym.INTLIT, start, p, (int)val);
+    }
+
+    // Scans the string literal starting at pos.  Returns sym.STRINGLIT, or
+    // -1 after reporting a bad one.
+    //
+    // bach.jlex has four rules for text starting with a quote, and the
+    // token is the longest text any of them matches (the first rule wins
+    // a tie):
+    //   A  "(N|\E)*"            a string literal
+    //   B  "(N|\E)*             unterminated
+    //   C  "(N|\E)*\X[^\n"]*"   bad escaped character
+    //   D  "(N|\E)*(\X)?(N|\E)*\?
+    //                           bad escaped character and unterminated
+    // where N is any char but newline, quote and backslash, E is one of
+    // nst'"\ and X any char but newline and nt'"?\.  All four are run
+    // together, one char at a time; none can match a newline.
+    private int string() {
+        char[] buf = this.buf;
+        int start = pos;
+        int p = start + 1;
+
+        // the states of the four rules: in (N|\E)* (shared by all four) or
+        // just after its backslash; in C's [^\n"]*; in D's second (N|\E)*
+        // (which D's first one is part of, as (\X)? may be empty) or just
+        // after its backslash
+        boolean body = true, escape = false, rest = false;
+        boolean dBody = true, dEscape = false;
+
+        // the end of the longest match of each rule, or -1
+        int endA = -1, endB = p, endC = -1, endD = p;
+
+        while (p < end && buf[p] != '\n' &&
+               (body || escape || rest || dBody || dEscape)) {
+            char c = buf[p];
+            boolean n = c != '"' && c != '\\';
+            boolean e = "nst'\"\\".indexOf(c) >= 0;
+            boolean x = "nt'\"?\\".indexOf(c) < 0;
+
+            if (body && c == '"') {
+                endA = p + 1;
+            }
+            if (rest && c == '"') {
+                endC = p + 1;
+            }
+            boolean body2 = (body && n) || (escape && e);
+            boolean escape2 = body && c == '\\';
+            boolean rest2 = (escape && x) || (rest && c != '"');
+            boolean dBody2 = body2 || (dBody && n) || (escape && x) ||
+                             (dEscape && e);
+            boolean dEscape2 = dBody && c == '\\';
+
+            body = body2;
+            escape = escape2;
+            rest = rest2;
+            dBody = dBody2;
+            dEscape = dEscape2;
+            p++;
+            if (body) {
+                endB = p;
+            }
+            // D may also end with a lone backslash
+            if (body || escape || dBody || dEscape) {
+                endD = p;
+            }
+        }
+
+        int stop = Math.max(Math.max(endA, endB), Math.max(endC, endD));
+        int lines = 0;
+        for (int k = start; k < stop; k++) {
+            if (buf[k] == '\r') {
+                lines++;
+            }
+        }
+        pos = stop;
+
+        int kind = -1;
+        if (endA == stop) {
+            kind = token(sym.STRINGLIT, start, stop,
+                         strings.intern(buf, start, stop - start));
+        }
+        else if (endB == stop) {
+            ErrMsg.fatal(line, charNum, "L002",
+                         "ignoring string literal: unterminated ");
+        }
+        else if (endC == stop) {
+            ErrMsg.fatal(line, charNum, "L003",
+                         "ignoring string literal: contains bad escaped " +
+                         "character");
+            charNum += stop - start;
+        }
+        else {
+            ErrMsg.fatal(line, charNum, "L004",
+                         "ignoring string literal: contains bad escaped " +
+                         "character and unterminated");
+        }
+        line += lines;
+        return kind;
+    }
+
+    // Reads the whole source into buf.
+    private void read() throws IOException {
+        char[] chars = new char[8192];
+        int n = 0;
+        while (true) {
+            if (n == chars.length - 1) {
+                chars = Arrays.copyOf(chars, chars.length * 2);
+            }
+            int count = in.read(chars, n, chars.length - 1 - n);
+            if (count == -1) {
+                break;
+            }
+            n += count;
+        }
+        chars[n] = 0;
+        buf = chars;
+        end = n;
+    }
+}
@@ -0,0 +1,709 @@
+import java.io.*;
+
+/**
+ * FastParser
+ *
+ * A hand-written recursive-descent parser for bach (P6 --parser=fast).  It
+ * builds the same AST as the parser CUP generates from bach.cup, and stops
+ * at the same token with the same message when there is a syntax error,
+ * but it runs no LALR tables and makes no Symbol per token or reduction:
+ * it reads the tokens straight out of a TokenBuffer.  The AST is built as
+ * a FlatAst, its nodes added in postorder as they are parsed, and parse
+ * turns that into ASTnodes.
+ *
+ * Each nonterminal of bach.cup is a method, which decides between its
+ * productions on the current token (a declaration or a statement that
+ * starts with an identifier is decided a token or two later, once the
+ * productions differ).  Expressions are parsed by precedence climbing,
+ * with the precedences declared in bach.cup:
+ *
+ *   ASSIGN                                     right, lowest
+ *   OR                                         left
+ *   AND                                        left
+ *   EQUALS NOTEQ LESS GREATER LESSEQ GREATEREQ nonassoc
+ *   PLUS MINUS                                 left
+ *   TIMES DIVIDE                               left
+ *   NOT UMINUS                                 right, highest
+ *
+ * The left side of an assignment must be a loc, and CUP shifts an ASSIGN
+ * after a loc whatever precedes it, so "a + b = c" is "a + (b = c)"; here
+ * a loc followed by ASSIGN is parsed as an assignment wherever it occurs.
+ *
+ * Where CUP's parser gives up at the first syntax error, this one reports
+ * it and recovers in panic mode at the statement or declaration it is in:
+ * the nodes added for that statement or declaration are dropped, and the
+ * rest of it is skipped up to the next synchronizing token, DOT, RSQUARE
+ * or RCURLY.  A DOT ends the construct and is skipped too, and parsing
+ * goes on with the next statement or declaration; a RSQUARE or RCURLY is
+ * left to end the enclosing list (at the top level, where it closes
+ * nothing, it is skipped).  So that the errors that follow from the first
+ * are not reported as well, an error is only reported if at least
+ * SYNC_SIZE tokens have been parsed since the last one, as CUP's error
+ * recovery does with its error_sync_size.  The first syntax error is the
+ * one CUP's parser reports.
+ *
+ * The tokens come either from a TokenBuffer holding the whole source or
+ * from a scanner, which is asked for one token at a time so that, as with
+ * CUP, the scanner never gets ahead of the parser.
+ */
+class FastParser {
+    // binary operator precedences (0 for a token that is not one)
+    private static final int LOWEST = 1;
+    private static final int OR = 1;
+    private static final int AND = 2;
+    private static final int COMPARISON = 3;
+    private static final int ADD = 4;
+    private static final int MULTIPLY = 5;
+    private static final int UNARY = 6;
+
+    // the tokens to parse after a syntax error before another is reported
+    private static final int SYNC_SIZE = 3;
+
+    private final TokenBuffer tokens;
+    private final TokenScanner scanner;     // null if tokens is the source
+    private final FlatAst ast;
+
+    // the current token: its index in tokens, and its kind
+    private int pos;
+    private int kind;
+
+    // the tokens read, not counting EOF, for --stats
+    private int count = 0;
+
+    // the syntax errors found, and the tokens parsed since the last one
+    private int errors = 0;
+    private int parsed = 0;
+
+    /**
+     * Makes a parser for the tokens in a TokenBuffer, which must end with
+     * EOF.
+     */
+    FastParser(TokenBuffer tokens) {
+        this.tokens = tokens;
+        scanner = null;
+        pos = -1;
+        // there are about as many nodes as tokens
+        ast = new FlatAst(tokens.names(), tokens.strings(), tokens.size());
+    }
+
+    /**
+     * Makes a parser that reads the tokens from scanner as it needs them.
+     */
+    FastParser(TokenScanner scanner) {
+        this.scanner = scanner;
+        tokens = new TokenBuffer(CompileContext.current(), 16);
+        pos = -1;
+        ast = new FlatAst(tokens.names(), tokens.strings(), 1 << 10);
+    }
+
+    /**
+     * Returns the number of tokens read so far, not counting EOF.
+     */
+    int tokenCount() {
+        return count;
+    }
+
+    /**
+     * Parses the whole source and returns its AST.
+     * @throws SyntaxErrorException if there were syntax errors, once they
+     *         have all been reported
+     */
+    ProgramNode parse() throws IOException, SyntaxErrorException {
+        return parseFlat().toProgramNode();
+    }
+
+    /**
+     * Parses the whole source and returns its AST as a FlatAst.
+     * @throws SyntaxErrorException if there were syntax errors, once they
+     *         have all been reported
+     */
+    FlatAst parseFlat() throws IOException, SyntaxErrorException {
+        advance();
+        int list = ast.mark();
+        int decls = 0;
+        while (kind != sym.EOF) {
+            int mark = ast.mark();
+            try {
+                decl();
+                decls++;
+            } catch (SyntaxErrorException ex) {
+                ast.truncate(mark);
+                sync(true);
+            }
+        }
+        if (errors > 0) {
+            throw new SyntaxErrorException();
+        }
+        ast.node(FlatAst.DECL_LIST, list, decls);
+        ast.node(FlatAst.PROGRAM, list, 0);
+        ast.trim();
+        return ast;
+    }
+
+    /**
+     * SyntaxErrorException
+     * Thrown to abandon the construct that has a syntax error, and, at the
+     * end, the parse.
+     */
+    static class SyntaxErrorException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        SyntaxErrorException() {
+            super("Syntax error");
+        }
+    }
+
+    // **********************************************************************
+    // declarations
+    // **********************************************************************
+
+    // Each of these methods adds the nodes of what it parses to ast.  A
+    // node is added once its children have been: mark is noted where they
+    // start.
+
+    // decl ::= varDecl | structDecl | funcDecl
+    private void decl() throws IOException, SyntaxErrorException {
+        int mark = ast.mark();
+        if (kind == sym.STRUCT) {
+            advance();
+            id();
+            if (kind == sym.ID) {
+                ast.node(FlatAst.STRUCT, mark, 0);
+                id();
+                expect(sym.DOT);
+                ast.node(FlatAst.VAR_DECL, mark, 0);
+                return;
+            }
+            expect(sym.LSQUARE);
+            int list = ast.mark();
+            int decls = 0;
+            do {
+                int declMark = ast.mark();
+                try {
+                    varDecl();
+                    decls++;
+                } catch (SyntaxErrorException ex) {
+                    ast.truncate(declMark);
+                    sync(false);
+                }
+            } while (startsVarDecl());
+            expect(sym.RSQUARE);
+            ast.node(FlatAst.DECL_LIST, list, decls);
+            ast.node(FlatAst.STRUCT_DECL, mark, 0);
+            return;
+        }
+
+        type();
+        id();
+        if (kind == sym.DOT) {
+            advance();
+            ast.node(FlatAst.VAR_DECL, mark, VarDeclNode.NON_STRUCT);
+            return;
+        }
+        formals();
+        funcBody();
+        ast.node(FlatAst.FUNC_DECL, mark, 0);
+    }
+
+    // varDecl ::= type id DOT | STRUCT id id DOT
+    private void varDecl() throws IOException, SyntaxErrorException {
+        int mark = ast.mark();
+        if (kind == sym.STRUCT) {
+            advance();
+            id();
+            ast.node(FlatAst.STRUCT, mark, 0);
+            id();
+            expect(sym.DOT);
+            ast.node(FlatAst.VAR_DECL, mark, 0);
+            return;
+        }
+        type();
+        id();
+        expect(sym.DOT);
+        ast.node(FlatAst.VAR_DECL, mark, VarDeclNode.NON_STRUCT);
+    }
+
+    // varDeclList ::= varDecl*
+    private void varDeclList() throws IOException {
+        int list = ast.mark();
+        int decls = 0;
+        while (startsVarDecl()) {
+            int mark = ast.mark();
+            try {
+                varDecl();
+                decls++;
+            } catch (SyntaxErrorException ex) {
+                ast.truncate(mark);
+                sync(false);
+            }
+        }
+        ast.node(FlatAst.DECL_LIST, list, decls);
+    }
+
+    private boolean startsVarDecl() {
+        return kind == sym.BOOLEAN || kind == sym.INTEGER ||
+               kind == sym.VOID || kind == sym.STRUCT;
+    }
+
+    // formals ::= LSQUARE RSQUARE | LSQUARE formalsList RSQUARE
+    // formalsList ::= formalDecl | formalDecl COMMA formalsList
+    private void formals() throws IOException, SyntaxErrorException {
+        expect(sym.LSQUARE);
+        int list = ast.mark();
+        int formals = 0;
+        try {
+            if (kind != sym.RSQUARE) {
+                formalDecl();
+                formals++;
+                while (kind == sym.COMMA) {
+                    advance();
+                    formalDecl();
+                    formals++;
+                }
+            }
+            expect(sym.RSQUARE);
+        } catch (SyntaxErrorException ex) {
+            // skip to the RSQUARE, so that the body can still be parsed
+            while (kind != sym.RSQUARE && kind != sym.LSQUARE &&
+                   kind != sym.DOT && kind != sym.EOF) {
+                advance();
+            }
+            if (kind != sym.RSQUARE) {
+                throw ex;
+            }
+            parsed = 0;
+            advance();
+            ast.truncate(list);
+            formals = 0;
+        }
+        ast.node(FlatAst.FORMALS_LIST, list, formals);
+    }
+
+    // formalDecl ::= type id
+    private void formalDecl() throws IOException, SyntaxErrorException {
+        int mark = ast.mark();
+        type();
+        id();
+        ast.node(FlatAst.FORMAL_DECL, mark, 0);
+    }
+
+    // funcBody ::= LSQUARE varDeclList stmtList RSQUARE
+    private void funcBody() throws IOException, SyntaxErrorException {
+        expect(sym.LSQUARE);
+        int mark = ast.mark();
+        varDeclList();
+        stmtList();
+        expect(sym.RSQUARE);
+        ast.node(FlatAst.FUNC_BODY, mark, 0);
+    }
+
+    // type ::= BOOLEAN | INTEGER | VOID
+    private void type() throws IOException, SyntaxErrorException {
+        switch (kind) {
+        case sym.BOOLEAN:
+            ast.leaf(FlatAst.BOOLEAN, 0, 0, 0);
+            break;
+        case sym.INTEGER:
+            ast.leaf(FlatAst.INTEGER, 0, 0, 0);
+            break;
+        case sym.VOID:
+            ast.leaf(FlatAst.VOID, 0, 0, 0);
+            break;
+        default:
+            throw syntaxError();
+        }
+        advance();
+    }
+
+    // **********************************************************************
+    // statements
+    // **********************************************************************
+
+    // stmtList ::= stmt*, which is always followed by RSQUARE or RCURLY
+    private void stmtList() throws IOException {
+        int list = ast.mark();
+        int stmts = 0;
+        while (kind != sym.RSQUARE && kind != sym.RCURLY &&
+               kind != sym.EOF) {
+            int mark = ast.mark();
+            try {
+                stmt();
+                stmts++;
+            } catch (SyntaxErrorException ex) {
+                ast.truncate(mark);
+                sync(false);
+            }
+        }
+        ast.node(FlatAst.STMT_LIST, list, stmts);
+    }
+
+    private void stmt() throws IOException, SyntaxErrorException {
+        int mark = ast.mark();
+        switch (kind) {
+        case sym.RETURN: {
+            advance();
+            boolean hasExp = kind != sym.DOT;
+            if (hasExp) {
+                exp(LOWEST);
+            }
+            expect(sym.DOT);
+            ast.node(FlatAst.RETURN_STMT, mark, hasExp ? 1 : 0);
+            return;
+        }
+
+        case sym.INPUT: {
+            advance();
+            expect(sym.READOP);
+            int loc = ast.mark();
+            id();
+            loc(loc);
+            expect(sym.DOT);
+            ast.node(FlatAst.READ_STMT, mark, 0);
+            return;
+        }
+
+        case sym.DISPLAY:
+            advance();
+            expect(sym.WRITEOP);
+            exp(LOWEST);
+            expect(sym.DOT);
+            ast.node(FlatAst.WRITE_STMT, mark, 0);
+            return;
+
+        case sym.WHILE:
+            advance();
+            condition();
+            expect(sym.LCURLY);
+            varDeclList();
+            stmtList();
+            expect(sym.RCURLY);
+            ast.node(FlatAst.WHILE_STMT, mark, 0);
+            return;
+
+        case sym.IF:
+            advance();
+            condition();
+            expect(sym.LCURLY);
+            varDeclList();
+            stmtList();
+            expect(sym.RCURLY);
+            if (kind != sym.ELSE) {
+                ast.node(FlatAst.IF_STMT, mark, 0);
+                return;
+            }
+            advance();
+            expect(sym.LCURLY);
+            varDeclList();
+            stmtList();
+            expect(sym.RCURLY);
+            ast.node(FlatAst.IF_ELSE_STMT, mark, 0);
+            return;
+
+        default: {
+            // assignExp DOT, loc PLUSPLUS DOT, loc MINUSMINUS DOT or
+            // funcCall DOT
+            id();
+            if (kind == sym.LPAREN) {
+                funcCall(mark);
+                expect(sym.DOT);
+                ast.node(FlatAst.CALL_STMT, mark, 0);
+                return;
+            }
+            loc(mark);
+            int stmt;
+            switch (kind) {
+            case sym.ASSIGN:
+                advance();
+                exp(LOWEST);
+                ast.node(FlatAst.ASSIGN_EXP, mark, 0);
+                stmt = FlatAst.ASSIGN_STMT;
+                break;
+            case sym.PLUSPLUS:
+                advance();
+                stmt = FlatAst.POST_INC_STMT;
+                break;
+            case sym.MINUSMINUS:
+                advance();
+                stmt = FlatAst.POST_DEC_STMT;
+                break;
+            default:
+                throw syntaxError();
+            }
+            expect(sym.DOT);
+            ast.node(stmt, mark, 0);
+            return;
+        }
+        }
+    }
+
+    // LPAREN exp RPAREN, of a while or if
+    private void condition() throws IOException, SyntaxErrorException {
+        expect(sym.LPAREN);
+        exp(LOWEST);
+        expect(sym.RPAREN);
+    }
+
+    // **********************************************************************
+    // expressions
+    // **********************************************************************
+
+    // Parses an expression whose binary operators all have at least the
+    // given precedence.
+    private void exp(int min) throws IOException, SyntaxErrorException {
+        int mark = ast.mark();
+        unary();
+        boolean compared = false;
+        for (int prec = precedence(kind); prec >= min;
+             prec = precedence(kind)) {
+            if (prec == COMPARISON && compared) {
+                // the comparisons are non-associative
+                throw syntaxError();
+            }
+            compared = prec == COMPARISON;
+            int op = kind;
+            advance();
+            exp(prec + 1);
+            ast.node(binary(op), mark, 0);
+        }
+    }
+
+    // Parses an expression with no binary operator at the top: a term,
+    // an assignment or a unary operator and its operand.
+    private void unary() throws IOException, SyntaxErrorException {
+        int mark = ast.mark();
+        switch (kind) {
+        case sym.NOT:
+            advance();
+            exp(UNARY);
+            ast.node(FlatAst.NOT, mark, 0);
+            return;
+        case sym.MINUS:
+            advance();
+            exp(UNARY);
+            ast.node(FlatAst.UNARY_MINUS, mark, 0);
+            return;
+        case sym.INTLIT:
+            ast.leaf(FlatAst.INT_LIT, line(), charNum(), tokens.value(pos));
+            advance();
+            return;
+        case sym.STRINGLIT:
+            ast.leaf(FlatAst.STRING_LIT, line(), charNum(),
+                     tokens.value(pos));
+            advance();
+            return;
+        case sym.TRUE:
+            ast.leaf(FlatAst.TRUE, line(), charNum(), 0);
+            advance();
+            return;
+        case sym.FALSE:
+            ast.leaf(FlatAst.FALSE, line(), charNum(), 0);
+            advance();
+            return;
+        case sym.LPAREN:
+            advance();
+            exp(LOWEST);
+            expect(sym.RPAREN);
+            return;
+        case sym.ID:
+            id();
+            if (kind == sym.LPAREN) {
+                funcCall(mark);
+                return;
+            }
+            loc(mark);
+            if (kind == sym.ASSIGN) {
+                advance();
+                exp(LOWEST);
+                ast.node(FlatAst.ASSIGN_EXP, mark, 0);
+            }
+            return;
+        default:
+            throw syntaxError();
+        }
+    }
+
+    // Returns the precedence of kind as a binary operator, or 0.
+    private static int precedence(int kind) {
+        switch (kind) {
+        case sym.OR:
+            return OR;
+        case sym.AND:
+            return AND;
+        case sym.EQUALS:
+        case sym.NOTEQ:
+        case sym.LESS:
+        case sym.GREATER:
+        case sym.LESSEQ:
+        case sym.GREATEREQ:
+            return COMPARISON;
+        case sym.PLUS:
+        case sym.MINUS:
+            return ADD;
+        case sym.TIMES:
+        case sym.DIVIDE:
+            return MULTIPLY;
+        default:
+            return 0;
+        }
+    }
+
+    // Returns the FlatAst kind of the binary operator op.
+    private static int binary(int op) {
+        switch (op) {
+        case sym.OR:
+            return FlatAst.OR;
+        case sym.AND:
+            return FlatAst.AND;
+        case sym.EQUALS:
+            return FlatAst.EQUALS;
+        case sym.NOTEQ:
+            return FlatAst.NOT_EQ;
+        case sym.LESS:
+            return FlatAst.LESS;
+        case sym.GREATER:
+            return FlatAst.GREATER;
+        case sym.LESSEQ:
+            return FlatAst.LESS_EQ;
+        case sym.GREATEREQ:
+            return FlatAst.GREATER_EQ;
+        case sym.PLUS:
+            return FlatAst.PLUS;
+        case sym.MINUS:
+            return FlatAst.MINUS;
+        case sym.TIMES:
+            return FlatAst.TIMES;
+        default:
+            return FlatAst.DIVIDE;
+        }
+    }
+
+    // funcCall ::= id LPAREN RPAREN | id LPAREN actualList RPAREN,
+    // where id has been parsed, from mark
+    private void funcCall(int mark) throws IOException, SyntaxErrorException {
+        expect(sym.LPAREN);
+        int list = ast.mark();
+        int actuals = 0;
+        if (kind != sym.RPAREN) {
+            exp(LOWEST);
+            actuals++;
+            while (kind == sym.COMMA) {
+                advance();
+                exp(LOWEST);
+                actuals++;
+            }
+        }
+        expect(sym.RPAREN);
+        ast.node(FlatAst.EXP_LIST, list, actuals);
+        ast.node(FlatAst.CALL_EXP, mark, 0);
+    }
+
+    // loc ::= id | loc COLON id, where the first id has been parsed, from
+    // mark
+    private void loc(int mark) throws IOException, SyntaxErrorException {
+        while (kind == sym.COLON) {
+            advance();
+            id();
+            ast.node(FlatAst.STRUCT_ACCESS, mark, 0);
+        }
+    }
+
+    // id ::= ID
+    private void id() throws IOException, SyntaxErrorException {
+        if (kind != sym.ID) {
+            throw syntaxError();
+        }
+        ast.leaf(FlatAst.ID, line(), charNum(), tokens.value(pos));
+        advance();
+    }
+
+    // **********************************************************************
+    // tokens
+    // **********************************************************************
+
+    // Moves on to the next token.
+    private void advance() throws IOException {
+        if (scanner == null) {
+            pos++;
+        }
+        else {
+            tokens.clear();
+            scanner.fill(tokens, 1);
+            pos = 0;
+        }
+        kind = tokens.kind(pos);
+        if (kind != sym.EOF) {
+            count++;
+        }
+        parsed++;
+    }
+
+    // Skips the rest of a statement or declaration after a syntax error:
+    // the tokens up to the next DOT, which is skipped too, or RSQUARE,
+    // RCURLY or EOF, which are not.  A block in brackets or braces that
+    // opens while skipping is skipped whole, and if it is not followed by
+    // another (as a function's formals are by its body, or an if's then
+    // part by else) the statement or declaration ends with it.  At the top
+    // level a RSQUARE or RCURLY that closes nothing is skipped as well.
+    private void sync(boolean top) throws IOException {
+        int depth = 0;      // of the blocks opened while skipping
+        while (kind != sym.EOF) {
+            if (kind == sym.DOT && depth == 0) {
+                parsed = 0;
+                advance();
+                return;
+            }
+            if (kind == sym.LSQUARE || kind == sym.LCURLY) {
+                depth++;
+            }
+            else if (kind == sym.RSQUARE || kind == sym.RCURLY) {
+                if (depth == 0 && !top) {
+                    break;
+                }
+                if (depth > 0 && --depth == 0) {
+                    advance();
+                    if (kind != sym.LSQUARE && kind != sym.LCURLY &&
+                        kind != sym.ELSE) {
+                        break;
+                    }
+                    continue;
+                }
+            }
+            advance();
+        }
+        parsed = 0;
+    }
+
+    // Moves past the current token if it is of the given kind, or else
+    // reports a syntax error.
+    private void expect(int k) throws IOException, SyntaxErrorException {
+        if (kind != k) {
+            throw syntaxError();
+        }
+        advance();
+    }
+
+    private int line() {
+        return tokens.line(pos);
+    }
+
+    private int charNum() {
+        return tokens.charNum(pos);
+    }
+
+    // Reports a syntax error at the current token, as the parser.java that
+    // CUP generates does, unless it is too soon after the last one, and
+    // returns the exception to abandon the construct it is in.
+    private SyntaxErrorException syntaxError() {
+        if (errors == 0 || parsed >= SYNC_SIZE) {
+            if (kind == sym.EOF) {
+                ErrMsg.fatal(0, 0, "P002", "Syntax error at end of file");
+            }
+            else {
+                ErrMsg.fatal(line(), charNum(), "P001", "Syntax error");
+            }
+        }
+        errors++;
+        parsed = 0;
+        return new SyntaxErrorException();
+    }
+}
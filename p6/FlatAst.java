@@ -0,0 +1,625 @@
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * FlatAst
+ *
+ * An AST stored flat, in a few parallel arrays, rather than as a graph of
+ * ASTnode objects: FastParser builds one, and toProgramNode turns it into
+ * the ASTnode tree that unparse, nameAnalysis, typeCheck and codeGen work
+ * on.  There is one kind of node for each concrete ASTnode class, and a
+ * node has the children its class has, in the same order.
+ *
+ * Nodes are numbered in postorder: a node comes after all of its children,
+ * which come one after another in order, each after its own children, so
+ * the root is the last node.  For each node, three values are kept:
+ *
+ *   kind   one of the constants below (a byte)
+ *   span   for a node with children, the number of nodes in its subtree
+ *          (so its last child is the node before it, and the child
+ *          before a child c is c - span(c)); a leaf's span is 1, so this
+ *          slot holds its packed line and character number instead
+ *   value  for an identifier or string literal, its id in the names or
+ *          strings InternTable; for an integer literal, its value; for a
+ *          list, the number of children; for a return statement, 1 if it
+ *          has an expression; for a variable declaration, its size (as
+ *          VarDeclNode's); 0 for any other node
+ *
+ * That is 9 bytes a node, where the ASTnode objects take about three
+ * times as much.
+ *
+ * The builder methods (mark, leaf, node and truncate) append nodes in
+ * postorder, as a parser finds them: to add a node, note mark() before
+ * parsing its children, then call node with that mark once they have been
+ * added.  The view methods (root, kind, childCount, child, children,
+ * lastChild, prevSibling, line, charNum, value, name and string) walk the
+ * tree.  write and read store the arrays in binary, for AstCache.
+ */
+class FlatAst {
+    // node kinds, one per concrete ASTnode class
+    static final int PROGRAM = 0;
+    static final int DECL_LIST = 1;
+    static final int STMT_LIST = 2;
+    static final int EXP_LIST = 3;
+    static final int FORMALS_LIST = 4;
+    static final int FUNC_BODY = 5;
+    static final int VAR_DECL = 6;
+    static final int FUNC_DECL = 7;
+    static final int FORMAL_DECL = 8;
+    static final int STRUCT_DECL = 9;
+    static final int BOOLEAN = 10;
+    static final int INTEGER = 11;
+    static final int VOID = 12;
+    static final int STRUCT = 13;
+    static final int ASSIGN_STMT = 14;
+    static final int POST_INC_STMT = 15;
+    static final int POST_DEC_STMT = 16;
+    static final int IF_STMT = 17;
+    static final int IF_ELSE_STMT = 18;
+    static final int WHILE_STMT = 19;
+    static final int READ_STMT = 20;
+    static final int WRITE_STMT = 21;
+    static final int CALL_STMT = 22;
+    static final int RETURN_STMT = 23;
+    static final int TRUE = 24;
+    static final int FALSE = 25;
+    static final int ID = 26;
+    static final int INT_LIT = 27;
+    static final int STRING_LIT = 28;
+    static final int STRUCT_ACCESS = 29;
+    static final int ASSIGN_EXP = 30;
+    static final int CALL_EXP = 31;
+    static final int NOT = 32;
+    static final int UNARY_MINUS = 33;
+    static final int AND = 34;
+    static final int OR = 35;
+    static final int PLUS = 36;
+    static final int MINUS = 37;
+    static final int TIMES = 38;
+    static final int DIVIDE = 39;
+    static final int EQUALS = 40;
+    static final int NOT_EQ = 41;
+    static final int LESS = 42;
+    static final int GREATER = 43;
+    static final int LESS_EQ = 44;
+    static final int GREATER_EQ = 45;
+
+    // the number of kinds
+    static final int KINDS = 46;
+
+    // the number of children of each kind, or -1 if it is in value
+    private static final int[] ARITY = {
+        1, -1, -1, -1, -1, 2, 2, 4, 2, 2,       // PROGRAM .. STRUCT_DECL
+        0, 0, 0, 1,                             // BOOLEAN .. STRUCT
+        1, 1, 1, 3, 5, 3, 1, 1, 1, -1,          // ASSIGN_STMT .. RETURN_STMT
+        0, 0, 0, 0, 0,                          // TRUE .. STRING_LIT
+        2, 2, 2, 1, 1,                          // STRUCT_ACCESS .. UNARY_MINUS
+        2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2      // AND .. GREATER_EQ
+    };
+
+    // a leaf's line and character number are packed as
+    // line << CHAR_BITS | charNum if they fit
+    private static final int CHAR_BITS = 12;
+    private static final int MAX_LINE = (1 << (31 - CHAR_BITS)) - 1;
+    private static final int MAX_CHAR = (1 << CHAR_BITS) - 1;
+
+    private byte[] kinds;
+    private int[] spans;
+    private int[] values;
+    private int size = 0;
+
+    // positions that do not pack; a leaf with one has -1 - its index here
+    // as its span
+    private int[] bigLines = new int[0];
+    private int[] bigChars = new int[0];
+    private int bigCount = 0;
+
+    // the tables the values of identifiers and string literals refer to
+    private final InternTable names;
+    private final InternTable strings;
+
+    /**
+     * Makes an empty AST, with room for about capacity nodes, whose
+     * identifiers and strings are in the given tables.
+     */
+    FlatAst(InternTable names, InternTable strings, int capacity) {
+        this.names = names;
+        this.strings = strings;
+        capacity = Math.max(capacity, 16);
+        kinds = new byte[capacity];
+        spans = new int[capacity];
+        values = new int[capacity];
+    }
+
+    // **********************************************************************
+    // builder
+    // **********************************************************************
+
+    /**
+     * Returns the index the next node added will have: the mark to pass
+     * to node for a node whose children are all added after this.
+     */
+    int mark() {
+        return size;
+    }
+
+    /**
+     * Adds a leaf: a node with no children.
+     */
+    int leaf(int kind, int line, int charNum, int value) {
+        int span;
+        if (line >= 0 && line <= MAX_LINE && charNum >= 0 &&
+            charNum <= MAX_CHAR) {
+            span = line << CHAR_BITS | charNum;
+        }
+        else {
+            if (bigCount == bigLines.length) {
+                bigLines = Arrays.copyOf(bigLines, bigCount * 2 + 4);
+                bigChars = Arrays.copyOf(bigChars, bigCount * 2 + 4);
+            }
+            bigLines[bigCount] = line;
+            bigChars[bigCount] = charNum;
+            span = -1 - bigCount++;
+        }
+        return add(kind, span, value);
+    }
+
+    /**
+     * Adds a node whose children are the nodes added since mark was
+     * returned by mark().
+     */
+    int node(int kind, int mark, int value) {
+        return add(kind, size - mark + 1, value);
+    }
+
+    /**
+     * Removes the nodes added since mark was returned by mark(), such as
+     * the part of a construct that was parsed before a syntax error.
+     */
+    void truncate(int mark) {
+        size = mark;
+    }
+
+    /**
+     * Shrinks the arrays to the nodes added.
+     */
+    void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        spans = Arrays.copyOf(spans, size);
+        values = Arrays.copyOf(values, size);
+    }
+
+    private int add(int kind, int span, int value) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            spans = Arrays.copyOf(spans, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[size] = (byte)kind;
+        spans[size] = span;
+        values[size] = value;
+        return size++;
+    }
+
+    // **********************************************************************
+    // view
+    // **********************************************************************
+
+    /**
+     * Returns the number of nodes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the root, the last node added.
+     */
+    int root() {
+        return size - 1;
+    }
+
+    int kind(int n) {
+        return kinds[n];
+    }
+
+    int value(int n) {
+        return values[n];
+    }
+
+    /**
+     * Returns the number of children of node n.
+     */
+    int childCount(int n) {
+        int arity = ARITY[kinds[n]];
+        return arity >= 0 ? arity : values[n];
+    }
+
+    /**
+     * Returns the number of nodes in the subtree of node n.
+     */
+    int span(int n) {
+        return ARITY[kinds[n]] == 0 ? 1 : spans[n];
+    }
+
+    /**
+     * Returns the last child of node n, which must have children.
+     */
+    int lastChild(int n) {
+        return n - 1;
+    }
+
+    /**
+     * Returns the child before c of c's parent, if c is not its first.
+     */
+    int prevSibling(int c) {
+        return c - span(c);
+    }
+
+    /**
+     * Returns child k (from 0) of node n.
+     */
+    int child(int n, int k) {
+        int c = n - 1;
+        for (int j = childCount(n) - 1; j > k; j--) {
+            c -= span(c);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the children of node n, in order.
+     */
+    int[] children(int n) {
+        int[] c = new int[childCount(n)];
+        int child = n - 1;
+        for (int k = c.length - 1; k >= 0; k--) {
+            c[k] = child;
+            child -= span(child);
+        }
+        return c;
+    }
+
+    /**
+     * Returns the line of leaf n (0 for a type).
+     */
+    int line(int n) {
+        int span = spans[n];
+        return span >= 0 ? span >>> CHAR_BITS : bigLines[-1 - span];
+    }
+
+    /**
+     * Returns the character number of leaf n (0 for a type).
+     */
+    int charNum(int n) {
+        int span = spans[n];
+        return span >= 0 ? span & MAX_CHAR : bigChars[-1 - span];
+    }
+
+    /**
+     * Returns the name of identifier n.
+     */
+    String name(int n) {
+        return names.name(values[n]);
+    }
+
+    /**
+     * Returns the value of string literal n.
+     */
+    String string(int n) {
+        return strings.name(values[n]);
+    }
+
+    // **********************************************************************
+    // serialization
+    // **********************************************************************
+
+    /**
+     * Writes the nodes to out: the number of nodes and of big positions,
+     * then the kinds, spans, values, big lines and big chars, each an
+     * array of that many bytes or ints.  The tables are not written; the
+     * values of identifiers and string literals are ids in them.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(bigCount);
+        out.write(kinds, 0, size);
+        for (int n = 0; n < size; n++) {
+            out.writeInt(spans[n]);
+        }
+        for (int n = 0; n < size; n++) {
+            out.writeInt(values[n]);
+        }
+        for (int k = 0; k < bigCount; k++) {
+            out.writeInt(bigLines[k]);
+        }
+        for (int k = 0; k < bigCount; k++) {
+            out.writeInt(bigChars[k]);
+        }
+    }
+
+    /**
+     * Reads nodes written by write from in, whose identifiers and strings
+     * are to be in the given tables.  The ids written for an identifier or
+     * string are mapped through nameIds or stringIds to the tables' ids.
+     * Throws an IOException if the nodes do not make a tree.
+     */
+    static FlatAst read(ByteBuffer in, InternTable names,
+                        InternTable strings, int[] nameIds, int[] stringIds)
+        throws IOException
+    {
+        int size = in.getInt();
+        int bigCount = in.getInt();
+        if (size < 1 || bigCount < 0 || bigCount > size ||
+            in.remaining() < size * 9L + bigCount * 8L) {
+            throw new IOException("bad node count");
+        }
+        FlatAst ast = new FlatAst(names, strings, size);
+        in.get(ast.kinds, 0, size);
+        in.asIntBuffer().get(ast.spans, 0, size);
+        in.position(in.position() + size * 4);
+        in.asIntBuffer().get(ast.values, 0, size);
+        in.position(in.position() + size * 4);
+        ast.bigLines = new int[bigCount];
+        ast.bigChars = new int[bigCount];
+        in.asIntBuffer().get(ast.bigLines);
+        in.position(in.position() + bigCount * 4);
+        in.asIntBuffer().get(ast.bigChars);
+        in.position(in.position() + bigCount * 4);
+        ast.size = size;
+        ast.bigCount = bigCount;
+        ast.check(nameIds, stringIds);
+        return ast;
+    }
+
+    // Checks that the nodes read make one tree, which toProgramNode can
+    // convert without failing, and maps their ids to this AST's tables.
+    private void check(int[] nameIds, int[] stringIds) throws IOException {
+        int depth = 0;  // the number of subtrees waiting for a parent
+        for (int n = 0; n < size; n++) {
+            int kind = kinds[n];
+            if (kind < 0 || kind >= KINDS) {
+                throw new IOException("bad node kind " + kind);
+            }
+            int count = childCount(n);
+            if (count < 0 || count > depth) {
+                throw new IOException("bad child count at node " + n);
+            }
+            depth -= count - 1;
+            int span = spans[n];
+            if (ARITY[kind] == 0) {
+                if (span < -bigCount) {
+                    throw new IOException("bad position at node " + n);
+                }
+            }
+            else if (span < 1 || span > n + 1) {
+                throw new IOException("bad span at node " + n);
+            }
+            if (kind == ID || kind == STRING_LIT) {
+                int[] ids = kind == ID ? nameIds : stringIds;
+                if (values[n] < 0 || values[n] >= ids.length) {
+                    throw new IOException("bad id at node " + n);
+                }
+                values[n] = ids[values[n]];
+            }
+        }
+        if (depth != 1 || kinds[size - 1] != PROGRAM) {
+            throw new IOException("nodes do not make a program");
+        }
+    }
+
+    // **********************************************************************
+    // conversion
+    // **********************************************************************
+
+    /**
+     * Returns the AST as ASTnode objects.  The nodes are made in postorder
+     * with a stack of the nodes still waiting for their parent, so there is
+     * no recursion however deep the tree.
+     */
+    ProgramNode toProgramNode() {
+        ArrayList<ASTnode> stack = new ArrayList<ASTnode>();
+        for (int n = 0; n < size; n++) {
+            ASTnode node;
+            switch (kinds[n]) {
+            case PROGRAM:
+                node = new ProgramNode((DeclListNode)pop(stack));
+                break;
+            case DECL_LIST:
+                node = new DeclListNode(FlatAst.<DeclNode>pop(stack,
+                                                              values[n]));
+                break;
+            case STMT_LIST:
+                node = new StmtListNode(FlatAst.<StmtNode>pop(stack,
+                                                              values[n]));
+                break;
+            case EXP_LIST:
+                node = new ExpListNode(FlatAst.<ExpNode>pop(stack,
+                                                            values[n]));
+                break;
+            case FORMALS_LIST:
+                node = new FormalsListNode(
+                           FlatAst.<FormalDeclNode>pop(stack, values[n]));
+                break;
+            case FUNC_BODY: {
+                StmtListNode stmtList = (StmtListNode)pop(stack);
+                node = new FuncBodyNode((DeclListNode)pop(stack), stmtList);
+                break;
+            }
+            case VAR_DECL: {
+                IdNode id = (IdNode)pop(stack);
+                node = new VarDeclNode((TypeNode)pop(stack), id, values[n]);
+                break;
+            }
+            case FUNC_DECL: {
+                FuncBodyNode body = (FuncBodyNode)pop(stack);
+                FormalsListNode formals = (FormalsListNode)pop(stack);
+                IdNode id = (IdNode)pop(stack);
+                node = new FuncDeclNode((TypeNode)pop(stack), id, formals,
+                                        body);
+                break;
+            }
+            case FORMAL_DECL: {
+                IdNode id = (IdNode)pop(stack);
+                node = new FormalDeclNode((TypeNode)pop(stack), id);
+                break;
+            }
+            case STRUCT_DECL: {
+                DeclListNode declList = (DeclListNode)pop(stack);
+                node = new StructDeclNode((IdNode)pop(stack), declList);
+                break;
+            }
+            case BOOLEAN:
+                node = new BooleanNode();
+                break;
+            case INTEGER:
+                node = new IntegerNode();
+                break;
+            case VOID:
+                node = new VoidNode();
+                break;
+            case STRUCT:
+                node = new StructNode((IdNode)pop(stack));
+                break;
+            case ASSIGN_STMT:
+                node = new AssignStmtNode((AssignExpNode)pop(stack));
+                break;
+            case POST_INC_STMT:
+                node = new PostIncStmtNode((ExpNode)pop(stack));
+                break;
+            case POST_DEC_STMT:
+                node = new PostDecStmtNode((ExpNode)pop(stack));
+                break;
+            case IF_STMT: {
+                StmtListNode stmtList = (StmtListNode)pop(stack);
+                DeclListNode declList = (DeclListNode)pop(stack);
+                node = new IfStmtNode((ExpNode)pop(stack), declList,
+                                      stmtList);
+                break;
+            }
+            case IF_ELSE_STMT: {
+                StmtListNode elseStmtList = (StmtListNode)pop(stack);
+                DeclListNode elseDeclList = (DeclListNode)pop(stack);
+                StmtListNode stmtList = (StmtListNode)pop(stack);
+                DeclListNode declList = (DeclListNode)pop(stack);
+                node = new IfElseStmtNode((ExpNode)pop(stack), declList,
+                                          stmtList, elseDeclList,
+                                          elseStmtList);
+                break;
+            }
+            case WHILE_STMT: {
+                StmtListNode stmtList = (StmtListNode)pop(stack);
+                DeclListNode declList = (DeclListNode)pop(stack);
+                node = new WhileStmtNode((ExpNode)pop(stack), declList,
+                                         stmtList);
+                break;
+            }
+            case READ_STMT:
+                node = new ReadStmtNode((ExpNode)pop(stack));
+                break;
+            case WRITE_STMT:
+                node = new WriteStmtNode((ExpNode)pop(stack));
+                break;
+            case CALL_STMT:
+                node = new CallStmtNode((CallExpNode)pop(stack));
+                break;
+            case RETURN_STMT:
+                node = new ReturnStmtNode(values[n] == 0 ? null
+                                          : (ExpNode)pop(stack));
+                break;
+            case TRUE:
+                node = new TrueNode(line(n), charNum(n));
+                break;
+            case FALSE:
+                node = new FalseNode(line(n), charNum(n));
+                break;
+            case ID:
+                node = new IdNode(line(n), charNum(n), name(n), values[n]);
+                break;
+            case INT_LIT:
+                node = new IntLitNode(line(n), charNum(n), values[n]);
+                break;
+            case STRING_LIT:
+                node = new StringLitNode(line(n), charNum(n), string(n));
+                break;
+            case STRUCT_ACCESS: {
+                IdNode id = (IdNode)pop(stack);
+                node = new StructAccessExpNode((ExpNode)pop(stack), id);
+                break;
+            }
+            case ASSIGN_EXP: {
+                ExpNode exp = (ExpNode)pop(stack);
+                node = new AssignExpNode((ExpNode)pop(stack), exp);
+                break;
+            }
+            case CALL_EXP: {
+                ExpListNode expList = (ExpListNode)pop(stack);
+                node = new CallExpNode((IdNode)pop(stack), expList);
+                break;
+            }
+            case NOT:
+                node = new NotNode((ExpNode)pop(stack));
+                break;
+            case UNARY_MINUS:
+                node = new UnaryMinusNode((ExpNode)pop(stack));
+                break;
+            default: {
+                ExpNode right = (ExpNode)pop(stack);
+                node = binary(kinds[n], (ExpNode)pop(stack), right);
+                break;
+            }
+            }
+            stack.add(node);
+        }
+        return (ProgramNode)stack.get(0);
+    }
+
+    // Returns the node of a binary operator kind.
+    private static ExpNode binary(int kind, ExpNode left, ExpNode right) {
+        switch (kind) {
+        case AND:
+            return new AndNode(left, right);
+        case OR:
+            return new OrNode(left, right);
+        case PLUS:
+            return new PlusNode(left, right);
+        case MINUS:
+            return new MinusNode(left, right);
+        case TIMES:
+            return new TimesNode(left, right);
+        case DIVIDE:
+            return new DivideNode(left, right);
+        case EQUALS:
+            return new EqualsNode(left, right);
+        case NOT_EQ:
+            return new NotEqNode(left, right);
+        case LESS:
+            return new LessNode(left, right);
+        case GREATER:
+            return new GreaterNode(left, right);
+        case LESS_EQ:
+            return new LessEqNode(left, right);
+        default:
+            return new GreaterEqNode(left, right);
+        }
+    }
+
+    private static ASTnode pop(ArrayList<ASTnode> stack) {
+        return stack.remove(stack.size() - 1);
+    }
+
+    // Removes the top count nodes of stack and returns them, in the order
+    // they were added.
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> pop(ArrayList<ASTnode> stack, int count) {
+        List<ASTnode> top = stack.subList(stack.size() - count, stack.size());
+        List<T> list = new ArrayList<T>(count);
+        for (ASTnode node : top) {
+            list.add((T)node);
+        }
+        top.clear();
+        return list;
+    }
+}
@@ -0,0 +1,196 @@
+import java.util.*;
+
+/**
+ * FlatSymTab
+ *
+ * A SymTab (P6 --symtab=flat) that keeps all of its scopes in one hash
+ * table instead of a HashMap per scope.  The table maps each name to the
+ * innermost of its bindings; each binding records the one it shadows, so
+ * the bindings of a name form a chain from the innermost scope out.  The
+ * bindings are kept in a stack in the order they were added, which is
+ * also the undo log: removeScope pops the bindings of the innermost scope,
+ * putting back the binding each one shadowed.
+ *
+ * So lookupLocal and lookupGlobal are one probe of the table however
+ * deeply the scopes nest, and addScope and removeScope allocate nothing
+ * (the stack and the table grow, but are not given back).  A name whose
+ * last binding is popped is taken out of the table, so the table holds
+ * only the names in scope (the globals and those of the function being
+ * analyzed) and stays small enough to be cached, where one holding every
+ * name of a large program would miss the cache on most probes.
+ *
+ * The table uses open addressing with linear probing, kept at most half
+ * full.  The names are the canonical Strings of the compilation's names
+ * InternTable, so they usually compare equal by identity and their hash
+ * codes are cached.  Names such as x1, x2, x3 have consecutive hash codes,
+ * which would fill runs of consecutive slots and make probes long, so the
+ * slot is taken from the high bits of the hash code times 2^32 / phi
+ * (Fibonacci hashing), which scatters them.
+ */
+class FlatSymTab extends SymTab {
+    // the name in each slot, or null if the slot is empty, and the index
+    // in the stack of its innermost binding
+    private String[] keys = new String[16];
+    private int[] heads = new int[16];
+    private int shift = 32 - 4;     // 32 - log2(keys.length)
+    private int used = 0;
+
+    // the bindings, in the order they were added: each one's symbol and
+    // name, and the index of the binding it shadows (or -1)
+    private Sym[] syms = new Sym[16];
+    private String[] names = new String[16];
+    private int[] shadowed = new int[16];
+    private int size = 0;
+
+    // the index in the stack of the first binding of each scope, outermost
+    // first
+    private int[] scopes = new int[8];
+    private int depth = 1;
+
+    FlatSymTab() {
+        super(null);
+    }
+
+    public void addDecl(String name, Sym sym)
+    throws SymDuplicateException, SymTabEmptyException {
+        if (name == null || sym == null)
+            throw new IllegalArgumentException();
+
+        if (depth == 0)
+            throw new SymTabEmptyException();
+
+        int slot = slot(name);
+        if (keys[slot] == null) {
+            if (2 * (used + 1) > keys.length) {
+                grow();
+                slot = slot(name);
+            }
+            keys[slot] = name;
+            heads[slot] = -1;
+            used++;
+        }
+        else if (heads[slot] >= scopes[depth - 1]) {
+            throw new SymDuplicateException();
+        }
+
+        if (size == syms.length) {
+            syms = Arrays.copyOf(syms, size * 2);
+            names = Arrays.copyOf(names, size * 2);
+            shadowed = Arrays.copyOf(shadowed, size * 2);
+        }
+        syms[size] = sym;
+        names[size] = name;
+        shadowed[size] = heads[slot];
+        heads[slot] = size++;
+    }
+
+    public void addScope() {
+        if (depth == scopes.length)
+            scopes = Arrays.copyOf(scopes, depth * 2);
+        scopes[depth++] = size;
+    }
+
+    public Sym lookupLocal(String name)
+    throws SymTabEmptyException {
+        if (depth == 0)
+            throw new SymTabEmptyException();
+
+        int slot = slot(name);
+        if (keys[slot] == null)
+            return null;
+        int b = heads[slot];
+        return b >= scopes[depth - 1] ? syms[b] : null;
+    }
+
+    public Sym lookupGlobal(String name)
+    throws SymTabEmptyException {
+        if (depth == 0)
+            throw new SymTabEmptyException();
+
+        int slot = slot(name);
+        return keys[slot] == null ? null : syms[heads[slot]];
+    }
+
+    public void removeScope() throws SymTabEmptyException {
+        if (depth == 0)
+            throw new SymTabEmptyException();
+
+        int start = scopes[--depth];
+        while (size > start) {
+            size--;
+            int slot = slot(names[size]);
+            if (shadowed[size] < 0) {
+                remove(slot);
+            }
+            else {
+                heads[slot] = shadowed[size];
+            }
+            syms[size] = null;
+            names[size] = null;
+        }
+    }
+
+    public void print() {
+        System.out.print("\n*** SymTab ***\n");
+        for (int d = depth - 1; d >= 0; d--) {
+            int end = d == depth - 1 ? size : scopes[d + 1];
+            HashMap<String, Sym> scope = new HashMap<String, Sym>();
+            for (int b = scopes[d]; b < end; b++) {
+                scope.put(names[b], syms[b]);
+            }
+            System.out.println(scope.toString());
+        }
+        System.out.print("\n*** DONE ***\n");
+    }
+
+    // Returns the slot of name, or the empty slot where it would go.
+    private int slot(String name) {
+        int mask = keys.length - 1;
+        int i = home(name);
+        for (String key = keys[i]; key != null; key = keys[i]) {
+            if (key == name || key.equals(name)) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Returns the slot where a probe for name starts.
+    private int home(String name) {
+        return (name.hashCode() * 0x9e3779b9) >>> shift;
+    }
+
+    // Empties slot i, moving back names further along its run whose probes
+    // pass through it, so that each can still be found from its home slot.
+    private void remove(int i) {
+        int mask = keys.length - 1;
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            // the name in j moves to i if i is on its probe, between its
+            // home and j
+            if (((j - home(keys[j])) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                heads[i] = heads[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        used--;
+    }
+
+    // Doubles the table, moving each name to its new slot.
+    private void grow() {
+        String[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new String[oldKeys.length * 2];
+        heads = new int[oldKeys.length * 2];
+        shift--;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+            }
+        }
+    }
+}
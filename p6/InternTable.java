@@ -0,0 +1,121 @@
+import java.util.Arrays;
+
+/**
+ * InternTable
+ *
+ * The distinct names (identifiers, or string literals) of one compilation.
+ * Each name is stored once, as a canonical String whose hash code has
+ * already been computed, and is given a dense id: 0 for the first name
+ * interned, 1 for the next, and so on.  The scanner looks names up
+ * straight from its buffer, so a name that has been seen before costs no
+ * allocation, and symbol tables can key on the canonical String (whose
+ * hash is cached and which compares equal by identity) or on the id.
+ *
+ * The table uses open addressing with linear probing over an array of
+ * ids, kept at most half full.
+ */
+class InternTable {
+    // id + 1 of the name in each slot, or 0 if the slot is empty
+    private int[] slots = new int[256];
+
+    // the names, their chars and their hash codes (as String.hashCode),
+    // by id
+    private String[] names = new String[128];
+    private char[][] chars = new char[128][];
+    private int[] hashes = new int[128];
+    private int size = 0;
+
+    /**
+     * Returns the id of the name made of the len chars of buf starting at
+     * start, adding it to the table if it is new.
+     */
+    int intern(char[] buf, int start, int len) {
+        int hash = 0;
+        for (int k = start; k < start + len; k++) {
+            hash = 31 * hash + buf[k];
+        }
+
+        int mask = slots.length - 1;
+        for (int i = spread(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (hashes[id] == hash &&
+                Arrays.equals(chars[id], 0, chars[id].length,
+                              buf, start, start + len)) {
+                return id;
+            }
+        }
+        return add(new String(buf, start, len), hash);
+    }
+
+    /**
+     * Returns the id of name, adding it to the table if it is new.
+     */
+    int intern(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int i = spread(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int id = slots[i] - 1;
+            if (hashes[id] == hash && names[id].equals(name)) {
+                return id;
+            }
+        }
+        return add(name, hash);
+    }
+
+    /**
+     * Returns the canonical String of the name with the given id.
+     */
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the number of distinct names, which is one more than the
+     * largest id.
+     */
+    int size() {
+        return size;
+    }
+
+    private int add(String name, int hash) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            chars = Arrays.copyOf(chars, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        name.hashCode();  // computed once here, cached in the String
+        int id = size++;
+        names[id] = name;
+        chars[id] = name.toCharArray();
+        hashes[id] = hash;
+        if (2 * size > slots.length) {
+            rehash(slots.length * 2);
+        }
+        else {
+            place(id);
+        }
+        return id;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int id = 0; id < size; id++) {
+            place(id);
+        }
+    }
+
+    private void place(int id) {
+        int mask = slots.length - 1;
+        int i = spread(hashes[id]) & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = id + 1;
+    }
+
+    // mixes the high bits of a String hash into the low ones, which pick
+    // the slot
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,119 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * MappedSource
+ *
+ * The text of a source file, read by memory-mapping the file rather than
+ * through a FileReader.  It is a BufferedReader only because that is the
+ * type of the reader inside the JLex-generated scanner; Yylex has a
+ * constructor that takes it as is, and each time the scanner refills its
+ * buffer the bytes are decoded straight from the mapping into the
+ * scanner's char array, with no FileReader, decoder stream or second
+ * buffer in between.
+ *
+ * The file is taken to be UTF-8.  While the input is ASCII (as bach
+ * sources normally are) bytes are simply widened to chars; from the first
+ * non-ASCII byte on, a CharsetDecoder is used, with malformed input
+ * replaced by U+FFFD.
+ */
+class MappedSource extends BufferedReader {
+    private final ByteBuffer bytes;
+
+    // null while the input seen so far is ASCII
+    private CharsetDecoder decoder = null;
+
+    // bytes being widened to chars
+    private byte[] scratch = new byte[0];
+
+    // the low surrogate of a character that did not fit in the last read
+    private char pending = 0;
+
+    /**
+     * Maps the named file.
+     * @throws NoSuchFileException if there is no such file
+     * @throws IOException if it cannot be read or is larger than 2GB
+     */
+    MappedSource(String fileName) throws IOException {
+        super(Reader.nullReader(), 1);
+        FileChannel channel = FileChannel.open(Paths.get(fileName));
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(fileName + " is too large to map");
+            }
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            channel.close();  // the mapping stays valid
+        }
+    }
+
+    /**
+     * Decodes up to len chars into cbuf at off.
+     * @return the number of chars decoded, or -1 at the end of the file
+     */
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (pending != 0) {
+            cbuf[off] = pending;
+            pending = 0;
+            n = 1;
+        }
+
+        if (decoder == null) {
+            // copy the bytes out in bulk, which is much cheaper than one
+            // get per byte from the mapping, and widen them
+            int count = Math.min(len - n, bytes.remaining());
+            if (scratch.length < count) {
+                scratch = new byte[count];
+            }
+            int pos = bytes.position();
+            bytes.get(pos, scratch, 0, count);
+            int k = 0;
+            for (; k < count; k++) {
+                byte b = scratch[k];
+                if (b < 0) {
+                    break;
+                }
+                cbuf[off + n++] = (char)b;
+            }
+            bytes.position(pos + k);
+            if (k < count) {
+                decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+        }
+
+        if (decoder != null && n < len && bytes.hasRemaining()) {
+            CharBuffer out = CharBuffer.wrap(cbuf, off + n, len - n);
+            decoder.decode(bytes, out, true);
+            if (out.position() == off + n && bytes.hasRemaining()) {
+                // no room for a surrogate pair: return half of it now
+                char[] pair = new char[2];
+                CharBuffer two = CharBuffer.wrap(pair);
+                decoder.decode(bytes, two, true);
+                out.put(pair[0]);
+                pending = pair[1];
+            }
+            n = out.position() - off;
+        }
+
+        return n == 0 ? -1 : n;
+    }
+
+    public int read() {
+        char[] c = new char[1];
+        return read(c, 0, 1) == -1 ? -1 : c[0];
+    }
+
+    public void close() {
+        // the mapping is released when this is garbage collected
+    }
+}
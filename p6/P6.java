@@ -1,5 +1,9 @@
 import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
 import java_cup.runtime.*;
+import java_cup.runtime.Scanner;
 
 /****
  * Main program to test the bach compiler.
@@ -13,62 +17,786 @@ import java_cup.runtime.*;
  * calls the parser.  If the parse is successful, then it will call name
  * analysis and type checking routines. If there is no error at the end,
  * it will generate MIPS code to the output file.
+ *
+ * Batch mode compiles many source files in one run:
+ *
+ *   java P6 -d outDir [-j threads] source...
+ *
+ * Each source may be a bach file, a directory (every *.bach file in it is
+ * compiled), a glob pattern such as "tests/final-*.bach", or @listFile
+ * naming a file that lists one source per line.  The MIPS code for
+ * foo.bach is written to outDir/foo.s; sources in different directories
+ * with the same name would be written to the same file, so a batch with
+ * two such sources is refused before anything is compiled (a source given
+ * more than once is just compiled once).  A line
+ * reporting success or failure and the time taken is printed for every
+ * file, followed by a summary; the exit status is non-zero if any file
+ * failed.
+ *
+ * The files are compiled concurrently by a fixed pool of worker threads,
+ * one per available core unless -j gives the number.  Each compilation
+ * has its own CompileContext; its error messages are collected and printed
+ * together with its report line, in the order the sources were given.
+ *
+ * Options (before the other arguments, in either mode):
+ *   --stats        print the time, CPU time and memory allocated by each
+ *                  phase and the number of tokens, AST nodes, symbols and
+ *                  instructions, for each file compiled
+ *   --stats=json   the same as a JSON object on one line per file
+ *   --mmap         read sources by memory-mapping them (see MappedSource),
+ *                  which is faster for large files
+ *   --token-buffer lex each source in full into a TokenBuffer before
+ *                  parsing it, rather than as the parser asks for tokens;
+ *                  any lexical errors are then reported before syntax
+ *                  errors
+ *   --lexer=fast   scan with the hand-written FastLexer instead of the
+ *                  JLex-generated Yylex (--lexer=jlex, the default)
+ *   --parser=fast  parse with the hand-written FastParser instead of the
+ *                  parser CUP generates from bach.cup (--parser=cup, the
+ *                  default); with --token-buffer or --lex-threads it
+ *                  reads the TokenBuffer directly.  It recovers from a
+ *                  syntax error and goes on to report the rest, where
+ *                  CUP's parser stops at the first
+ *   --symtab=flat  do name analysis with FlatSymTab, which keeps all
+ *                  scopes in one hash table with an undo log, instead of
+ *                  SymTab's list of a HashMap per scope (--symtab=maps,
+ *                  the default)
+ *   --lex-threads=n
+ *                  lex a large source in chunks of lines on up to n
+ *                  threads at once (see ParallelLexer) into a TokenBuffer
+ *                  before parsing it; as with --token-buffer, lexical
+ *                  errors are then reported before syntax errors
+ *   --cache-dir=dir
+ *                  keep the ASTs of sources that parse without errors or
+ *                  warnings in dir (see AstCache), and take the AST of a
+ *                  source whose bytes are the same as one of those from
+ *                  there instead of lexing and parsing it again (each
+ *                  source is read in full to hash it, and not mapped)
+ *   --max-errors=n stop compiling a file after its first n errors (by
+ *                  default there is no limit); a file stopped before it
+ *                  is parsed still fails to parse, for the exit status
+ *   --diagnostics=json
+ *                  write error and warning messages as JSON objects, one
+ *                  per line, with their severity, position, code, message
+ *                  and phase (see Diagnostic) instead of as text
+ *   --diagnostics=sarif
+ *                  the same as a SARIF log, one line per file
+ *   --tokens       write the tokens of the source to the output file, in
+ *                  the format of p2's scanner tests, instead of compiling
+ *                  it
+ *   --unparse      parse the source and write it, unparsed from the AST,
+ *                  to the output file instead of compiling it
  ****/
 
 public class P6 {
     public static void main(String[] args)
         throws IOException // may be thrown by the scanner
     {
+        int status = run(args, null, System.out, System.err);
+        if (status != 0) {
+            System.exit(status);
+        }
+
+        return;
+    }
+
+    /****
+     * run
+     * Does everything main does for the given command-line arguments, but
+     * returns the exit status instead of exiting.  Relative file names are
+     * taken relative to dir (or the current directory if dir is null), and
+     * reports and error messages are printed to out and err.  This lets
+     * P6Server run commands for clients in other directories, and the
+     * tests run it in one JVM (see test/RunTests.java).
+     ****/
+    public static int run(String[] args, File dir, PrintStream out,
+                          PrintStream err)
+        throws IOException
+    {
+        Options opts = new Options();
+        args = opts.parse(args, err);
+        if (args == null) {
+            return -1;
+        }
+
+        if (args.length > 0 && args[0].equals("-d")) {
+            return batch(args, opts, dir, out, err);
+        }
+
         // check for command-line args
         if (args.length != 2) {
-            System.err.println("please supply name of source (bach) file " +
-                               "and name of file for target (MIPS).");
-            System.exit(-1);
+            err.println("please supply name of source (bach) file " +
+                        "and name of file for target (MIPS).");
+            err.println("or: -d outDir [-j threads] source... to compile " +
+                        "several files");
+            return -1;
+        }
+
+        CompileContext ctx = opts.newContext(err, dir);
+        int result = compile(resolve(dir, args[0]), resolve(dir, args[1]), ctx);
+        opts.printStats(ctx, args[0], out);
+        if (result == PARSE_FAILED) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /****
+     * Options
+     * The "--" options given on the command line.
+     ****/
+    static class Options {
+        String stats = null;    // null, "text" or "json"
+        boolean mmap = false;
+        boolean tokenBuffer = false;
+        boolean fastLexer = false;
+        boolean fastParser = false;
+        boolean flatSymTab = false;
+        boolean tokensOnly = false;
+        boolean unparseOnly = false;
+        int lexThreads = 1;
+        int maxErrors = 0;
+        String diagnostics = "text";
+        String cacheDir = null;
+
+        /****
+         * parse
+         * Records the options at the start of args and returns the rest
+         * of the arguments, or reports a bad option and returns null.
+         ****/
+        String[] parse(String[] args, PrintStream err) {
+            int k = 0;
+            for (; k < args.length && args[k].startsWith("--"); k++) {
+                if (args[k].equals("--stats") ||
+                    args[k].equals("--stats=text")) {
+                    stats = "text";
+                }
+                else if (args[k].equals("--stats=json")) {
+                    stats = "json";
+                }
+                else if (args[k].equals("--mmap")) {
+                    mmap = true;
+                }
+                else if (args[k].equals("--token-buffer")) {
+                    tokenBuffer = true;
+                }
+                else if (args[k].equals("--lexer=jlex")) {
+                    fastLexer = false;
+                }
+                else if (args[k].equals("--lexer=fast")) {
+                    fastLexer = true;
+                }
+                else if (args[k].equals("--parser=cup")) {
+                    fastParser = false;
+                }
+                else if (args[k].equals("--parser=fast")) {
+                    fastParser = true;
+                }
+                else if (args[k].equals("--symtab=maps")) {
+                    flatSymTab = false;
+                }
+                else if (args[k].equals("--symtab=flat")) {
+                    flatSymTab = true;
+                }
+                else if (args[k].startsWith("--lex-threads=")) {
+                    try {
+                        lexThreads = Integer.parseInt(
+                            args[k].substring("--lex-threads=".length()));
+                    } catch (NumberFormatException ex) {
+                        lexThreads = 0;
+                    }
+                    if (lexThreads < 1) {
+                        err.println("bad option " + args[k]);
+                        return null;
+                    }
+                }
+                else if (args[k].startsWith("--cache-dir=")) {
+                    cacheDir = args[k].substring("--cache-dir=".length());
+                    if (cacheDir.isEmpty()) {
+                        err.println("bad option " + args[k]);
+                        return null;
+                    }
+                }
+                else if (args[k].startsWith("--max-errors=")) {
+                    try {
+                        maxErrors = Integer.parseInt(
+                            args[k].substring("--max-errors=".length()));
+                    } catch (NumberFormatException ex) {
+                        maxErrors = 0;
+                    }
+                    if (maxErrors < 1) {
+                        err.println("bad option " + args[k]);
+                        return null;
+                    }
+                }
+                else if (args[k].equals("--diagnostics=text") ||
+                         args[k].equals("--diagnostics=json") ||
+                         args[k].equals("--diagnostics=sarif")) {
+                    diagnostics = args[k].substring("--diagnostics=".length());
+                }
+                else if (args[k].equals("--tokens")) {
+                    tokensOnly = true;
+                }
+                else if (args[k].equals("--unparse")) {
+                    unparseOnly = true;
+                }
+                else {
+                    err.println("unknown option " + args[k]);
+                    return null;
+                }
+            }
+            return Arrays.copyOfRange(args, k, args.length);
         }
 
-        // open input file
-        FileReader inFile = null;
+        /****
+         * newContext
+         * Returns a new CompileContext set up for these options, taking a
+         * relative cache directory relative to dir.
+         ****/
+        CompileContext newContext(PrintStream err, File dir) {
+            CompileContext ctx = new CompileContext(err);
+            if (stats != null) {
+                ctx.stats = new CompileStats();
+            }
+            ctx.mmap = mmap;
+            ctx.tokenBuffer = tokenBuffer;
+            ctx.fastLexer = fastLexer;
+            ctx.fastParser = fastParser;
+            if (flatSymTab) {
+                ctx.symTabs = FlatSymTab::new;
+            }
+            ctx.tokensOnly = tokensOnly;
+            ctx.unparseOnly = unparseOnly;
+            ctx.lexThreads = lexThreads;
+            ctx.diagnostics.maxErrors = maxErrors;
+            ctx.diagnostics.format = diagnostics;
+            if (cacheDir != null) {
+                ctx.astCache = new AstCache(new File(resolve(dir, cacheDir)));
+            }
+            return ctx;
+        }
+
+        /****
+         * printStats
+         * Prints the stats gathered in ctx for the given file, if asked to.
+         ****/
+        void printStats(CompileContext ctx, String file, PrintStream out) {
+            if (stats == null) {
+                return;
+            }
+            if (stats.equals("json")) {
+                out.println(ctx.stats.toJson(file));
+            }
+            else {
+                out.print(ctx.stats.toText(file));
+            }
+        }
+    }
+
+    // results of compile
+    static final int OK = 0;
+    static final int HAS_ERRORS = 1;
+    static final int PARSE_FAILED = 2;
+
+    /****
+     * compile
+     * Compiles one bach source file into the given target file, using ctx
+     * (which must not have been used before) as the current context of the
+     * calling thread for the duration.  A source that is not small is
+     * compiled on a thread of its own, with a stack big enough for it to
+     * nest deeply (see DeepStack).
+     * Returns OK, HAS_ERRORS (the source had errors, no code generated)
+     * or PARSE_FAILED (the files could not be opened, the parse failed or
+     * was stopped by reaching the error limit, or the source nested too
+     * deeply even so).
+     ****/
+    static int compile(String srcName, String targetName, CompileContext ctx)
+        throws IOException // may be thrown by the scanner
+    {
+        CompileContext saved = CompileContext.current();
+        CompileContext.setCurrent(ctx);
+        ctx.diagnostics.file = srcName;
         try {
-            inFile = new FileReader(args[0]);
-        } catch (FileNotFoundException ex) {
-            System.err.println("file " + args[0] + " not found");
-            System.exit(-1);
+            long stackSize = DeepStack.stackSize(new File(srcName).length());
+            return DeepStack.call(() -> compile(srcName, targetName),
+                                  stackSize);
+        } catch (ErrorLimitException ex) {
+            // the diagnostics end with a note that the limit was reached;
+            // only a limit reached after parsing gets here (see below)
+            if (ctx.codeOut != null) {
+                ctx.codeOut.close();
+            }
+            return HAS_ERRORS;
+        } catch (StackOverflowError ex) {
+            ctx.diagnostics.note(Diagnostic.DRIVER, "program in " + srcName +
+                                 " is nested too deeply to compile");
+            if (ctx.codeOut != null) {
+                ctx.codeOut.close();
+            }
+            return PARSE_FAILED;
+        } finally {
+            ctx.diagnostics.flush();
+            CompileContext.setCurrent(saved);
+        }
+    }
+
+    private static int compile(String srcName, String targetName)
+        throws IOException
+    {
+        CompileContext ctx = CompileContext.current();
+
+        // open input file; to use the AST cache, it is read in full to
+        // hash it, and lexed from those bytes if the AST is not cached
+        BufferedReader inFile = null;
+        byte[] hash = null;
+        try {
+            if (ctx.astCache != null && !ctx.tokensOnly) {
+                byte[] source = Files.readAllBytes(Paths.get(srcName));
+                hash = AstCache.hash(source);
+                inFile = new BufferedReader(new InputStreamReader(
+                             new ByteArrayInputStream(source)));
+            }
+            else if (ctx.mmap) {
+                inFile = new MappedSource(srcName);
+            }
+            else {
+                inFile = new BufferedReader(new FileReader(srcName));
+            }
+        } catch (FileNotFoundException | NoSuchFileException ex) {
+            ctx.diagnostics.note(Diagnostic.DRIVER,
+                                 "file " + srcName + " not found");
+            return PARSE_FAILED;
         }
 
         // open output file
-        PrintWriter outFile = null;
         try {
-            Codegen.p = new PrintWriter(args[1]);
+            ctx.codeOut = new PrintWriter(targetName);
         } catch (FileNotFoundException ex) {
-            System.err.println("file " + args[1] +
-                               " could not be opened for writing");
-            System.exit(-1);
+            ctx.diagnostics.note(Diagnostic.DRIVER, "file " + targetName +
+                                 " could not be opened for writing");
+            inFile.close();
+            return PARSE_FAILED;
         }
 
-        parser P = new parser(new Yylex(inFile));
+        CompileStats stats = ctx.stats;
+
+        if (ctx.tokensOnly) {
+            TokenBuffer tokens;
+            try {
+                tokens = tokenize(inFile);
+            } finally {
+                inFile.close();
+            }
+            tokens.print(ctx.codeOut);
+            ctx.codeOut.close();
+            return ErrMsg.getErr() ? HAS_ERRORS : OK;
+        }
 
-        Symbol root = null; // parser returns a Symbol whose value field
-                            // is the translation of the root nonterminal
-                            // (i.e., of the nonterminal "program")
+        ProgramNode program = null;
 
         try {
-            root = P.parse(); // do the parse
+            if (stats != null) stats.begin();
+            if (hash != null) {
+                program = ctx.astCache.load(hash);
+            }
+            if (program != null) {
+                // cached: nothing to lex or parse
+            }
+            else if (ctx.fastParser) {
+                FastParser P;
+                if (ctx.tokenBuffer || ctx.lexThreads > 1) {
+                    P = new FastParser(tokenize(inFile));
+                }
+                else {
+                    P = new FastParser(newLexer(inFile));
+                }
+                FlatAst ast;
+                try {
+                    ast = P.parseFlat();
+                } finally {
+                    if (stats != null) stats.tokens += P.tokenCount();
+                }
+                program = ast.toProgramNode();
+                if (hash != null) {
+                    store(hash, ast);
+                }
+            }
+            else {
+                Scanner scanner;
+                if (ctx.tokenBuffer || ctx.lexThreads > 1) {
+                    scanner = tokenize(inFile).scanner();
+                }
+                else {
+                    scanner = newLexer(inFile);
+                }
+                if (stats != null) {
+                    scanner = new CountingScanner(scanner, stats);
+                }
+                parser P = new parser(scanner);
+                // parse returns a Symbol whose value field is the
+                // translation of the root nonterminal ("program")
+                program = (ProgramNode)P.parse().value;
+                if (hash != null) {
+                    store(hash, AstCache.flatten(program, ctx.names,
+                                                 ctx.strings));
+                }
+            }
+            if (stats != null) {
+                stats.end(CompileStats.PARSE);
+                stats.astNodes = countNodes(program);
+            }
+        } catch (ErrorLimitException ex) {
+            // stopped before the parse finished: it failed, however many
+            // of its errors were reported
+            ctx.codeOut.close();
+            return PARSE_FAILED;
         } catch (Exception ex){
-            System.err.println("exception occured during parse: " + ex);
-            System.exit(-1);
+            if (!ErrMsg.getErr()) { // syntax errors were already reported
+                ctx.diagnostics.note(Diagnostic.PARSE,
+                                     "exception occured during parse: " + ex);
+            }
+            ctx.codeOut.close();
+            return PARSE_FAILED;
+        } finally {
+            inFile.close();
+        }
+
+        if (ctx.unparseOnly) {
+            program.unparse(ctx.codeOut, 0);
+            ctx.codeOut.close();
+            return ErrMsg.getErr() ? HAS_ERRORS : OK;
         }
 
-        ((ProgramNode)root.value).nameAnalysis();  // perform name analysis
+        if (stats != null) stats.begin();
+        program.nameAnalysis();  // perform name analysis
+        if (stats != null) stats.end(CompileStats.NAME_ANALYSIS);
 
         if (!ErrMsg.getErr()) {  // if no errors, do type checking
-            ((ProgramNode)root.value).typeCheck();
+            if (stats != null) stats.begin();
+            program.typeCheck();
+            if (stats != null) stats.end(CompileStats.TYPE_CHECK);
         }
 
         if (!ErrMsg.getErr()) {  // if no errors, do code generation
-            ((ProgramNode)root.value).codeGen();
-        }        
-        Codegen.p.close();
+            if (stats != null) stats.begin();
+            program.codeGen();
+            if (stats != null) stats.end(CompileStats.CODE_GEN);
+        }
+        ctx.codeOut.close();
 
-        return;
+        return ErrMsg.getErr() ? HAS_ERRORS : OK;
+    }
+
+    /****
+     * store
+     * Stores ast in the AST cache as the AST of the source with the given
+     * hash, unless the source had errors or warnings.
+     ****/
+    private static void store(byte[] hash, FlatAst ast) {
+        CompileContext ctx = CompileContext.current();
+        if (ctx.diagnostics.diagnostics().isEmpty()) {
+            ctx.astCache.store(hash, ast, ctx.names, ctx.strings);
+        }
+    }
+
+    /****
+     * newLexer
+     * Returns the scanner chosen by --lexer for inFile.
+     ****/
+    private static TokenScanner newLexer(Reader inFile) {
+        if (CompileContext.current().fastLexer) {
+            return new FastLexer(inFile);
+        }
+        return new Yylex(inFile);
+    }
+
+    /****
+     * tokenize
+     * Scans all of inFile into a TokenBuffer, in parallel if --lex-threads
+     * asks for it.
+     ****/
+    private static TokenBuffer tokenize(Reader inFile) throws IOException {
+        CompileContext ctx = CompileContext.current();
+        if (ctx.lexThreads > 1) {
+            return ParallelLexer.lex(inFile, ctx.lexThreads, ctx.fastLexer);
+        }
+        TokenBuffer tokens = new TokenBuffer();
+        tokens.fill(newLexer(inFile));
+        return tokens;
+    }
+
+    /****
+     * countNodes
+     * Returns the number of nodes in the AST with the given root, for
+     * --stats.
+     ****/
+    private static int countNodes(ProgramNode program) {
+        int[] count = { 0 };
+        ASTWalker.walk(program, new ASTVisitor() {
+            boolean enter(ASTnode node) {
+                count[0]++;
+                return true;
+            }
+        });
+        return count[0];
+    }
+
+    /****
+     * CountingScanner
+     * Passes on the tokens of another scanner, counting them (not
+     * including EOF) for --stats.
+     ****/
+    private static class CountingScanner implements Scanner {
+        private final Scanner scanner;
+        private final CompileStats stats;
+
+        CountingScanner(Scanner scanner, CompileStats stats) {
+            this.scanner = scanner;
+            this.stats = stats;
+        }
+
+        public Symbol next_token() throws Exception {
+            Symbol token = scanner.next_token();
+            if (token.sym != sym.EOF) {
+                stats.tokens++;
+            }
+            return token;
+        }
+    }
+
+    /****
+     * batch
+     * Handles "-d outDir [-j threads] source...": compiles every source
+     * into outDir on a pool of worker threads, reporting each file in the
+     * order given.  Returns the exit status.
+     ****/
+    private static int batch(String[] args, Options opts, File dir,
+                             PrintStream out, PrintStream err)
+        throws IOException
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 2;
+        if (args.length > 3 && args[2].equals("-j")) {
+            try {
+                threads = Integer.parseInt(args[3]);
+            } catch (NumberFormatException ex) {
+                threads = 0;
+            }
+            if (threads < 1) {
+                err.println("bad number of threads: " + args[3]);
+                return -1;
+            }
+            first = 4;
+        }
+
+        if (args.length <= first) {
+            err.println("please supply an output directory and at " +
+                               "least one source after -d");
+            return -1;
+        }
+
+        File outDir = new File(resolve(dir, args[1]));
+        if (!outDir.isDirectory() && !outDir.mkdirs()) {
+            err.println("directory " + args[1] + " could not be created");
+            return -1;
+        }
+
+        List<String> given = new ArrayList<String>();
+        for (int k = first; k < args.length; k++) {
+            expandSource(args[k], dir, given);
+        }
+
+        // a source reached twice (named twice, or by a directory and a
+        // glob) is compiled once, as it was first given
+        Map<String, String> unique = new LinkedHashMap<String, String>();
+        for (String src : given) {
+            unique.putIfAbsent(new File(resolve(dir, src)).getCanonicalPath(),
+                               src);
+        }
+        List<String> sources = new ArrayList<String>(unique.values());
+
+        // the sources are compiled side by side, so no two may be compiled
+        // into the same file (a/foo.bach and b/foo.bach, say)
+        Map<String, String> targets = new LinkedHashMap<String, String>();
+        for (String src : sources) {
+            String target = new File(args[1], targetName(src)).getPath();
+            String other = targets.putIfAbsent(target, src);
+            if (other != null) {
+                err.println("sources " + other + " and " + src +
+                            " would both be compiled to " + target);
+                return -1;
+            }
+        }
+
+        long batchStart = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Unit>> results = new ArrayList<Future<Unit>>();
+        for (Map.Entry<String, String> e : targets.entrySet()) {
+            results.add(pool.submit(new Unit(e.getValue(), e.getKey(), opts,
+                                             dir)));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        for (Future<Unit> result : results) {
+            Unit unit;
+            try {
+                unit = result.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return -1;
+            } catch (ExecutionException ex) {
+                // cannot happen: Unit.call catches everything
+                throw new IllegalStateException(ex.getCause());
+            }
+
+            if (unit.result != OK) {
+                failed++;
+            }
+            err.print(unit.messages.toString());
+            out.println(unit.src + " -> " + unit.target + ": " +
+                               (unit.result == OK ? "ok" : "FAILED") +
+                               " (" + millis(unit.time) + " ms)");
+            opts.printStats(unit.ctx, unit.src, out);
+        }
+        long batchTime = System.nanoTime() - batchStart;
+
+        out.println(sources.size() + " file(s), " +
+                           (sources.size() - failed) + " ok, " +
+                           failed + " failed (" + millis(batchTime) + " ms, " +
+                           threads + " thread(s))");
+        return failed == 0 ? 0 : 1;
+    }
+
+    /****
+     * Unit
+     * One source file of a batch: compiling it collects its error messages
+     * (and stats) in its own context and records the result of compile and
+     * the time taken.  Anything compile throws is reported as a message and
+     * makes the result PARSE_FAILED, so one bad file does not stop the
+     * batch.
+     ****/
+    private static class Unit implements Callable<Unit> {
+        final String src;
+        final String target;
+        final File dir;
+        final ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        final CompileContext ctx;
+        int result;
+        long time;
+
+        Unit(String src, String target, Options opts, File dir) {
+            this.src = src;
+            this.target = target;
+            this.dir = dir;
+            ctx = opts.newContext(new PrintStream(messages), dir);
+        }
+
+        public Unit call() {
+            long start = System.nanoTime();
+            try {
+                result = compile(resolve(dir, src), resolve(dir, target), ctx);
+            } catch (Throwable ex) {
+                // an I/O error, or a bug (Yylex throws Error on characters
+                // it has no rule for): this file failed, the rest go on
+                ctx.diagnostics.note(Diagnostic.DRIVER, "compiling " + src +
+                                     " failed: " + ex);
+                ctx.diagnostics.flush();
+                if (ctx.codeOut != null) {
+                    ctx.codeOut.close();
+                }
+                result = PARSE_FAILED;
+            }
+            time = System.nanoTime() - start;
+            return this;
+        }
+    }
+
+    /****
+     * expandSource
+     * Adds the source file(s) named by one batch argument to the list.
+     * The argument may be @listFile, a directory, a glob pattern or a file.
+     * Names are added as given; they are resolved against dir when used.
+     ****/
+    private static void expandSource(String arg, File dir, List<String> sources)
+        throws IOException
+    {
+        if (arg.startsWith("@")) {
+            BufferedReader list = new BufferedReader(
+                               new FileReader(resolve(dir, arg.substring(1))));
+            String line;
+            while ((line = list.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    expandSource(line, dir, sources);
+                }
+            }
+            list.close();
+            return;
+        }
+
+        File file = new File(resolve(dir, arg));
+        if (file.isDirectory()) {
+            addMatches(arg, dir, "*.bach", sources);
+        }
+        else if (!file.exists() && (arg.contains("*") || arg.contains("?"))) {
+            addMatches(new File(arg).getParent(), dir,
+                       new File(arg).getName(), sources);
+        }
+        else {
+            sources.add(arg);   // a missing file is reported by compile
+        }
+    }
+
+    /****
+     * addMatches
+     * Adds the files in directory name (null for the current directory)
+     * whose names match the glob, in name order.
+     ****/
+    private static void addMatches(String name, File dir, String glob,
+                                   List<String> sources)
+        throws IOException
+    {
+        List<String> found = new ArrayList<String>();
+        Path path = Paths.get(resolve(dir, name == null ? "." : name));
+        DirectoryStream<Path> stream = Files.newDirectoryStream(path, glob);
+        for (Path match : stream) {
+            if (Files.isRegularFile(match)) {
+                String file = match.getFileName().toString();
+                found.add(name == null ? file : new File(name, file).getPath());
+            }
+        }
+        stream.close();
+        Collections.sort(found);
+        sources.addAll(found);
+    }
+
+    /****
+     * targetName
+     * Returns the name of the MIPS file for the given source: foo.bach
+     * (in any directory) becomes foo.s.
+     ****/
+    private static String targetName(String src) {
+        String name = new File(src).getName();
+        if (name.endsWith(".bach")) {
+            name = name.substring(0, name.length() - ".bach".length());
+        }
+        return name + ".s";
+    }
+
+    /****
+     * resolve
+     * Returns the name of the file called name relative to directory dir,
+     * or name itself if it is absolute or dir is null.
+     ****/
+    static String resolve(File dir, String name) {
+        if (dir == null || new File(name).isAbsolute()) {
+            return name;
+        }
+        return new File(dir, name).getPath();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
     }
 }
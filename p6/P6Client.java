@@ -0,0 +1,60 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+
+/****
+ * Client for P6Server.
+ *
+ * Takes exactly the same command-line arguments as P6, sends them to the
+ * compile server along with the current directory, and prints the
+ * server's output and exits with its status, so it can be used in place of
+ * P6.  The socket file is the server's default unless the system property
+ * p6.socket names another one.  If no server is running, the compile is
+ * done in this JVM by P6 itself.
+ ****/
+
+public class P6Client {
+    public static void main(String[] args) throws IOException {
+        String socket = System.getProperty("p6.socket",
+                                           P6Server.defaultSocket());
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException ex) {
+            P6.main(args);  // no server: compile here
+            return;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                           Channels.newOutputStream(server)));
+        out.writeInt(P6Server.VERSION);
+        out.writeUTF(new File("").getAbsolutePath());
+        out.writeInt(args.length);
+        for (String arg : args) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                           Channels.newInputStream(server)));
+        int kind;
+        while ((kind = in.readInt()) != P6Server.EXIT) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            if (kind == P6Server.OUT) {
+                System.out.write(bytes);
+            }
+            else {
+                System.err.write(bytes);
+            }
+        }
+        int status = in.readInt();
+        server.close();
+
+        System.out.flush();
+        System.err.flush();
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+}
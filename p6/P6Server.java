@@ -0,0 +1,183 @@
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/****
+ * Compile server for the bach compiler.
+ *
+ * Starting a JVM and loading the scanner, parser and AST classes takes
+ * much longer than compiling a small bach program, so the server stays
+ * running and compiles on behalf of P6Client, which has the same command
+ * line as P6.  Usage:
+ *
+ *   java P6Server [socketFile]
+ *
+ * The server listens on a Unix-domain socket (by default the file named by
+ * defaultSocket) and handles each connection on its own thread.
+ *
+ * Protocol (all integers are written with DataOutputStream.writeInt and
+ * all strings with writeUTF):
+ *   client -> server:  VERSION, client's working directory, number of
+ *                      arguments, the arguments
+ *   server -> client:  any number of frames OUT or ERR, each followed by
+ *                      a length and that many bytes of output, then
+ *                      a frame EXIT followed by the exit status
+ ****/
+
+public class P6Server {
+    static final int VERSION = 1;
+
+    // frame kinds
+    static final int EXIT = 0;
+    static final int OUT = 1;
+    static final int ERR = 2;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 1) {
+            System.err.println("please supply at most the name of the " +
+                               "socket file");
+            System.exit(-1);
+        }
+
+        final Path socket = Paths.get(args.length == 1 ? args[0]
+                                                       : defaultSocket());
+        Files.deleteIfExists(socket);   // left behind by a killed server
+
+        ServerSocketChannel server =
+            ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ex) {
+                    // nothing more can be done while exiting
+                }
+            }
+        });
+        System.err.println("P6Server listening on " + socket);
+
+        ExecutorService handlers = Executors.newCachedThreadPool();
+        while (true) {
+            final SocketChannel client = server.accept();
+            handlers.execute(new Runnable() {
+                public void run() {
+                    handle(client);
+                }
+            });
+        }
+    }
+
+    /****
+     * defaultSocket
+     * Returns the name of the socket file used when none is given, one
+     * per user in the temporary directory.
+     ****/
+    static String defaultSocket() {
+        return new File(System.getProperty("java.io.tmpdir"),
+                        "p6server-" + System.getProperty("user.name") +
+                        ".sock").getPath();
+    }
+
+    /****
+     * handle
+     * Reads one request from the client, runs it with P6.run and sends
+     * back its output and exit status.
+     ****/
+    private static void handle(SocketChannel client) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                                           Channels.newInputStream(client)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                           Channels.newOutputStream(client)));
+
+            if (in.readInt() != VERSION) {
+                sendOutput(out, ERR, "P6Server: client version not " +
+                                     "supported\n");
+                sendExit(out, -1);
+                return;
+            }
+            File dir = new File(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int k = 0; k < args.length; k++) {
+                args[k] = in.readUTF();
+            }
+
+            PrintStream stdout = new PrintStream(new FrameStream(out, OUT));
+            PrintStream stderr = new PrintStream(new FrameStream(out, ERR));
+            int status;
+            try {
+                status = P6.run(args, dir, stdout, stderr);
+            } catch (Throwable ex) {
+                // an Error too (the scanner throws one on a character it
+                // cannot match): the client still gets its exit status
+                stderr.println("exception occured during compile: " + ex);
+                status = -1;
+            }
+            stdout.flush();
+            stderr.flush();
+            sendExit(out, status);
+        } catch (IOException ex) {
+            System.err.println("P6Server: lost client: " + ex);
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ex) {
+                // the client has gone already
+            }
+        }
+    }
+
+    private static void sendOutput(DataOutputStream out, int kind, String text)
+        throws IOException
+    {
+        byte[] bytes = text.getBytes();
+        out.writeInt(kind);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void sendExit(DataOutputStream out, int status)
+        throws IOException
+    {
+        out.writeInt(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /****
+     * FrameStream
+     * Sends everything written to it to the client as OUT or ERR frames.
+     * The stdout and stderr streams of a request share one connection, so
+     * their output reaches the client in the order it was written.
+     ****/
+    private static class FrameStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int kind;
+
+        FrameStream(DataOutputStream out, int kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeInt(kind);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+}
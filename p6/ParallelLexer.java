@@ -0,0 +1,174 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ParallelLexer
+ *
+ * Scans a large source on several threads at once (P6 --lex-threads=n).
+ * No bach token can span a newline (comments run to the end of the line
+ * and string literals may not contain one), so the source can be split
+ * into chunks of whole lines that are scanned independently, each by its
+ * own scanner (Yylex or FastLexer) into its own TokenBuffer.  A scanner is
+ * told the line its chunk starts on, and a chunk starts at the beginning
+ * of a line, so the line and character numbers it gives are already those
+ * of the whole source.
+ *
+ * Each chunk is scanned with a CompileContext of its own, so its scanner
+ * has its own InternTables and DiagnosticSink.  The chunks' tokens are
+ * then appended in order to one TokenBuffer, which re-interns their
+ * identifiers and strings in the compilation's tables (giving them the
+ * ids a single scanner would have), and their messages are added in order
+ * to the compilation's sink, so they come out as a single scanner would
+ * have reported them.  A chunk stops at the compilation's maximum number
+ * of errors, as does the whole once the chunks' errors add up to it.
+ */
+class ParallelLexer {
+    // sources are not split into chunks smaller than this many chars
+    static final int MIN_CHUNK = 1 << 16;
+
+    /**
+     * Scans all of in, using up to the given number of threads, into a
+     * TokenBuffer of the current CompileContext; scans with FastLexer if
+     * fast is true, otherwise with Yylex.
+     */
+    static TokenBuffer lex(Reader in, int threads, boolean fast)
+        throws IOException
+    {
+        CompileContext ctx = CompileContext.current();
+        char[] source = readAll(in);
+        int length = source.length;
+
+        // split at the first line break after each of threads - 1 evenly
+        // spaced points, noting the line each chunk starts on
+        int chunks = Math.max(1, Math.min(threads, length / MIN_CHUNK));
+        List<int[]> splits = new ArrayList<int[]>();   // start, line
+        int start = 0;
+        int line = 1;
+        for (int c = 1; c <= chunks; c++) {
+            int stop = length;
+            if (c < chunks) {
+                stop = Math.max(start, (int)((long)length * c / chunks));
+                while (stop < length && source[stop] != '\n') {
+                    stop++;
+                }
+                stop = Math.min(stop + 1, length);
+            }
+            if (stop > start || c == chunks) {
+                splits.add(new int[] { start, stop, line });
+                line += lineBreaks(source, start, stop);
+                start = stop;
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(splits.size(),
+            task -> {
+                Thread t = new Thread(task, "lexer");
+                t.setDaemon(true);
+                return t;
+            });
+        try {
+            List<Future<Chunk>> results = new ArrayList<Future<Chunk>>();
+            for (int[] split : splits) {
+                results.add(pool.submit(() -> scan(source, split[0],
+                                                   split[1], split[2],
+                                                   fast, ctx)));
+            }
+
+            TokenBuffer tokens = new TokenBuffer();
+            for (Future<Chunk> result : results) {
+                Chunk chunk = get(result);
+                if (chunk.ctx.err) {
+                    ctx.err = true;
+                }
+                ctx.diagnostics.addAll(chunk.ctx.diagnostics);
+                tokens.append(chunk.tokens);
+            }
+            return tokens;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // The tokens of one chunk, and the context it was scanned with.
+    private static class Chunk {
+        CompileContext ctx;
+        TokenBuffer tokens;
+    }
+
+    // Scans the chars of source from start to stop, which start on the
+    // given line, for the compilation with context parent.
+    private static Chunk scan(char[] source, int start, int stop, int line,
+                              boolean fast, CompileContext parent)
+        throws IOException
+    {
+        Chunk chunk = new Chunk();
+        chunk.ctx = new CompileContext(parent.errStream);
+        chunk.ctx.diagnostics.maxErrors = parent.diagnostics.maxErrors;
+        CompileContext saved = CompileContext.current();
+        CompileContext.setCurrent(chunk.ctx);
+        try {
+            Reader in = new CharArrayReader(source, start, stop - start);
+            TokenScanner scanner;
+            if (fast) {
+                scanner = new FastLexer(in, line);
+            }
+            else {
+                scanner = new Yylex(in, line);
+            }
+            // about one token for every four chars
+            chunk.tokens = new TokenBuffer(chunk.ctx,
+                                           Math.max(16, (stop - start) / 4));
+            try {
+                chunk.tokens.fill(scanner);
+            } catch (ErrorLimitException ex) {
+                // the limit will be reached again when the chunk's
+                // messages are added to the compilation's
+            }
+            return chunk;
+        } finally {
+            CompileContext.setCurrent(saved);
+        }
+    }
+
+    // Returns the result of a chunk, rethrowing what its scan threw.
+    private static Chunk get(Future<Chunk> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("interrupted while lexing");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw (Error)cause;
+        }
+    }
+
+    // Returns the number of line breaks from start to stop, counted as
+    // JLex counts them: "\r\n" is one, and so is a "\r" or "\n" alone.
+    private static int lineBreaks(char[] source, int start, int stop) {
+        int n = 0;
+        for (int k = start; k < stop; k++) {
+            if (source[k] == '\r' ||
+                (source[k] == '\n' && (k == 0 || source[k - 1] != '\r'))) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    // Reads all of in.
+    private static char[] readAll(Reader in) throws IOException {
+        CharArrayWriter out = new CharArrayWriter(1 << 16);
+        char[] buf = new char[1 << 16];
+        for (int n; (n = in.read(buf)) != -1; ) {
+            out.write(buf, 0, n);
+        }
+        return out.toCharArray();
+    }
+}
@@ -10,6 +10,10 @@ public class Sym {
 	
 	public Sym(Type type) {
 		this.type = type;
+		CompileStats stats = CompileContext.current().stats;
+		if (stats != null) {
+			stats.symbols++;   // count the symbols for --stats
+		}
 	}
 	
 	public Type getType() {
@@ -9,12 +9,26 @@ public class SymTab {
 	private boolean globalScope;
 	
 	public SymTab() {
-		list = new LinkedList<HashMap<String, Sym>>();
+		this(new LinkedList<HashMap<String, Sym>>());
 		list.add(new HashMap<String, Sym>());
+	}
+
+	// for FlatSymTab, which keeps its scopes itself (list is null)
+	SymTab(List<HashMap<String, Sym>> list) {
+		this.list = list;
 		currOffset = 0;
 		globalScope = true;
 	}
 
+	/*
+	 * Returns a new, empty symbol table of the kind chosen for the current
+	 * compilation (see CompileContext.symTabs): a FlatSymTab with P6
+	 * --symtab=flat, else a SymTab.
+	 */
+	public static SymTab create() {
+		return CompileContext.current().symTabs.get();
+	}
+
 	public int getOffset() {
 		return currOffset;
 	}
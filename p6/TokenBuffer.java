@@ -0,0 +1,279 @@
+import java.io.*;
+import java.util.Arrays;
+import java_cup.runtime.*;
+
+/**
+ * TokenBuffer
+ *
+ * The tokens of a source file packed into parallel int arrays, one entry
+ * per token: its kind (a sym constant), line, character number and value.
+ * The value is the InternTable id of an identifier or string literal, the
+ * value of an integer literal, and 0 for other tokens.  The last token is
+ * always EOF once the whole file has been read.
+ *
+ * A scanner fills the buffer in bulk with TokenScanner.fill, which makes no
+ * objects per token, so a file can be lexed in full without the Symbol
+ * and TokenVal objects CUP needs.  scanner() gives CUP those objects one
+ * at a time, as it asks for them.
+ */
+class TokenBuffer {
+    private int[] kinds;
+    private int[] lines;
+    private int[] chars;
+    private int[] values;
+    private int size = 0;
+
+    // the tables the token values of identifiers and strings refer to
+    private final InternTable names;
+    private final InternTable strings;
+
+    /**
+     * Makes an empty buffer for tokens scanned with the current
+     * CompileContext.
+     */
+    TokenBuffer() {
+        this(CompileContext.current(), 1024);
+    }
+
+    TokenBuffer(CompileContext ctx, int capacity) {
+        names = ctx.names;
+        strings = ctx.strings;
+        kinds = new int[capacity];
+        lines = new int[capacity];
+        chars = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * Scans all the tokens of scanner (up to and including EOF) into the
+     * buffer.
+     */
+    void fill(TokenScanner scanner) throws IOException {
+        while (!atEOF()) {
+            scanner.fill(this, Math.max(kinds.length - size, 1024));
+        }
+    }
+
+    /**
+     * Adds a token at the end of the buffer.
+     */
+    void add(int kind, int line, int charNum, int value) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            chars = Arrays.copyOf(chars, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        kinds[size] = kind;
+        lines[size] = line;
+        chars[size] = charNum;
+        values[size] = value;
+        size++;
+    }
+
+    /**
+     * Adds the tokens of other, which may have been scanned with different
+     * InternTables, at the end of this buffer, re-interning their
+     * identifiers and strings in this buffer's tables.  An EOF at the end
+     * of this buffer is dropped first, so that buffers of consecutive parts
+     * of a source can be joined.
+     */
+    void append(TokenBuffer other) {
+        if (atEOF()) {
+            size--;
+        }
+        int[] nameIds = new int[other.names.size()];
+        for (int id = 0; id < nameIds.length; id++) {
+            nameIds[id] = names.intern(other.names.name(id));
+        }
+        int[] stringIds = new int[other.strings.size()];
+        for (int id = 0; id < stringIds.length; id++) {
+            stringIds[id] = strings.intern(other.strings.name(id));
+        }
+
+        int n = other.size;
+        if (size + n > kinds.length) {
+            int capacity = Math.max(size + n, size * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            chars = Arrays.copyOf(chars, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(other.kinds, 0, kinds, size, n);
+        System.arraycopy(other.lines, 0, lines, size, n);
+        System.arraycopy(other.chars, 0, chars, size, n);
+        for (int k = 0; k < n; k++) {
+            int value = other.values[k];
+            if (other.kinds[k] == sym.ID) {
+                value = nameIds[value];
+            }
+            else if (other.kinds[k] == sym.STRINGLIT) {
+                value = stringIds[value];
+            }
+            values[size + k] = value;
+        }
+        size += n;
+    }
+
+    /**
+     * Returns true if the last token in the buffer is EOF.
+     */
+    boolean atEOF() {
+        return size > 0 && kinds[size - 1] == sym.EOF;
+    }
+
+    /**
+     * Empties the buffer so that it can be filled again.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int kind(int k) {
+        return kinds[k];
+    }
+
+    int line(int k) {
+        return lines[k];
+    }
+
+    int charNum(int k) {
+        return chars[k];
+    }
+
+    int value(int k) {
+        return values[k];
+    }
+
+    /**
+     * Returns the table the values of identifiers refer to.
+     */
+    InternTable names() {
+        return names;
+    }
+
+    /**
+     * Returns the table the values of string literals refer to.
+     */
+    InternTable strings() {
+        return strings;
+    }
+
+    /**
+     * Returns token k as the scanner's next_token would have: a Symbol
+     * whose value is the right kind of TokenVal.
+     */
+    Symbol symbol(int k) {
+        int kind = kinds[k];
+        switch (kind) {
+        case sym.EOF:
+            return new Symbol(sym.EOF);
+        case sym.ID:
+            return new Symbol(kind, new IdTokenVal(lines[k], chars[k],
+                                                   names.name(values[k]),
+                                                   values[k]));
+        case sym.INTLIT:
+            return new Symbol(kind, new IntLitTokenVal(lines[k], chars[k],
+                                                       values[k]));
+        case sym.STRINGLIT:
+            return new Symbol(kind, new StrLitTokenVal(lines[k], chars[k],
+                                                  strings.name(values[k])));
+        default:
+            return new Symbol(kind, new TokenVal(lines[k], chars[k]));
+        }
+    }
+
+    /**
+     * Prints the tokens before EOF, one per line, in the format of p2's
+     * scanner tests: the token's text (or value) and its position.
+     */
+    void print(PrintWriter out) {
+        for (int k = 0; k < size && kinds[k] != sym.EOF; k++) {
+            String text;
+            switch (kinds[k]) {
+            case sym.ID:
+                text = names.name(values[k]);
+                break;
+            case sym.INTLIT:
+                text = String.valueOf(values[k]);
+                break;
+            case sym.STRINGLIT:
+                text = strings.name(values[k]);
+                break;
+            default:
+                text = spelling(kinds[k]);
+                break;
+            }
+            out.println(String.format("%-10s (Line: %d, Char: %d)", text,
+                                      lines[k], chars[k]));
+        }
+    }
+
+    // Returns the text of a token other than an identifier or literal.
+    private static String spelling(int kind) {
+        switch (kind) {
+        case sym.VOID: return "void";
+        case sym.BOOLEAN: return "boolean";
+        case sym.INTEGER: return "integer";
+        case sym.TRUE: return "TRUE";
+        case sym.FALSE: return "FALSE";
+        case sym.STRUCT: return "struct";
+        case sym.INPUT: return "input";
+        case sym.DISPLAY: return "disp";
+        case sym.IF: return "if";
+        case sym.ELSE: return "else";
+        case sym.WHILE: return "while";
+        case sym.RETURN: return "return";
+        case sym.LCURLY: return "{";
+        case sym.RCURLY: return "}";
+        case sym.LPAREN: return "(";
+        case sym.RPAREN: return ")";
+        case sym.LSQUARE: return "[";
+        case sym.RSQUARE: return "]";
+        case sym.COLON: return ":";
+        case sym.COMMA: return ",";
+        case sym.DOT: return ".";
+        case sym.READOP: return "->";
+        case sym.WRITEOP: return "<-";
+        case sym.PLUSPLUS: return "++";
+        case sym.MINUSMINUS: return "--";
+        case sym.PLUS: return "+";
+        case sym.MINUS: return "-";
+        case sym.TIMES: return "*";
+        case sym.DIVIDE: return "/";
+        case sym.NOT: return "^";
+        case sym.AND: return "&";
+        case sym.OR: return "|";
+        case sym.EQUALS: return "==";
+        case sym.NOTEQ: return "^=";
+        case sym.LESS: return "<";
+        case sym.GREATER: return ">";
+        case sym.LESSEQ: return "<=";
+        case sym.GREATEREQ: return ">=";
+        case sym.ASSIGN: return "=";
+        default: return "!!! UNKNOWN TOKEN !!!";
+        }
+    }
+
+    /**
+     * Returns a scanner for CUP that returns the tokens of the buffer in
+     * order, as Symbols, and then EOF for ever.
+     */
+    java_cup.runtime.Scanner scanner() {
+        return new java_cup.runtime.Scanner() {
+            private int next = 0;
+
+            public Symbol next_token() {
+                if (next == size) {
+                    return new Symbol(sym.EOF);
+                }
+                return symbol(next++);
+            }
+        };
+    }
+}
@@ -0,0 +1,17 @@
+import java.io.*;
+
+/**
+ * TokenScanner
+ *
+ * A scanner for bach: Yylex, generated by JLex from bach.jlex, or the
+ * hand-written FastLexer.  Either gives the parser one token at a time as
+ * a Symbol (next_token), or fills a TokenBuffer in bulk.
+ */
+interface TokenScanner extends java_cup.runtime.Scanner {
+    /**
+     * Scans up to max more tokens into buf and returns how many were
+     * added.  The EOF token is added like any other; after it nothing more
+     * is added.
+     */
+    int fill(TokenBuffer buf, int max) throws IOException;
+}
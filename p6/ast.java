@@ -100,6 +100,11 @@ import java.util.*;
 //        EqualsNode,      NotEqNode,           LessNode,      LessEqNode,
 //        GreaterNode,     GreaterEqNode,       AndNode,       OrNode
 //
+// Each pass is a method of every class it needs to visit.  A pass can
+// instead be written as one ASTVisitor, and run by ASTWalker, which walks
+// the tree without recursion using the kind, childCount and child methods
+// every node has.
+//
 // **********************************************************************
 
 // **********************************************************************
@@ -110,6 +115,20 @@ abstract class ASTnode {
     // every subclass must provide an unparse operation
     abstract public void unparse(PrintWriter p, int indent);
 
+    // every concrete subclass has a kind, one of FlatAst's node kinds,
+    // which ASTWalker dispatches on
+    abstract public int kind();
+
+    // the children, in the order listed above, for ASTWalker; leaves
+    // have none
+    public int childCount() {
+        return 0;
+    }
+
+    public ASTnode child(int k) {
+        throw new IndexOutOfBoundsException("no child " + k);
+    }
+
     // this method can be used by the unparse methods to do indenting
     protected void doIndent(PrintWriter p, int indent) {
         for (int k=0; k<indent; k++) p.print(" ");
@@ -132,10 +151,10 @@ class ProgramNode extends ASTnode {
      * all of the globals, struct defintions, and functions in the program.
      ****/
     public void nameAnalysis() {
-        SymTab symTab = new SymTab();
+        SymTab symTab = SymTab.create();
         myDeclList.nameAnalysis(symTab);
-        if (noMain) {
-            ErrMsg.fatal(0, 0, "No main function");
+        if (CompileContext.current().noMain) {
+            ErrMsg.fatal(0, 0, "N007", "No main function");
         }
     }
 
@@ -157,15 +176,25 @@ class ProgramNode extends ASTnode {
         myDeclList.unparse(p, indent);
     }
 
+    public int kind() {
+        return FlatAst.PROGRAM;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myDeclList;
+    }
+
     // 1 child
     private DeclListNode myDeclList;
-
-    public static boolean noMain = true; 
 }
 
 class DeclListNode extends ASTnode {
     public DeclListNode(List<DeclNode> S) {
-        myDecls = S;
+        myDecls = S.toArray(new DeclNode[S.size()]);
     }
 
     /****
@@ -183,7 +212,8 @@ class DeclListNode extends ASTnode {
      * decls in the list.
      ****/    
     public void nameAnalysis(SymTab symTab, SymTab globalTab) {
-        for (DeclNode node : myDecls) {
+        for (int k = 0; k < myDecls.length; k++) {
+            DeclNode node = myDecls[k];
             if (node instanceof VarDeclNode) {
                 ((VarDeclNode)node).nameAnalysis(symTab, globalTab);
             } else {
@@ -196,30 +226,36 @@ class DeclListNode extends ASTnode {
      * typeCheck
      ***/
     public void typeCheck() {
-        for (DeclNode node : myDecls) {
-            node.typeCheck();
+        for (int k = 0; k < myDecls.length; k++) {
+            myDecls[k].typeCheck();
         }
     }
 
     public void unparse(PrintWriter p, int indent) {
-        Iterator it = myDecls.iterator();
-        try {
-            while (it.hasNext()) {
-                ((DeclNode)it.next()).unparse(p, indent);
-            }
-        } catch (NoSuchElementException ex) {
-            System.err.println("unexpected NoSuchElementException in DeclListNode.print");
-            System.exit(-1);
+        for (int k = 0; k < myDecls.length; k++) {
+            myDecls[k].unparse(p, indent);
         }
     }
 
+    public int kind() {
+        return FlatAst.DECL_LIST;
+    }
+
+    public int childCount() {
+        return myDecls.length;
+    }
+
+    public ASTnode child(int k) {
+        return myDecls[k];
+    }
+
     // list of children (DeclNodes)
-    private List<DeclNode> myDecls;
+    private DeclNode[] myDecls;
 }
 
 class StmtListNode extends ASTnode {
     public StmtListNode(List<StmtNode> S) {
-        myStmts = S;
+        myStmts = S.toArray(new StmtNode[S.size()]);
     }
 
     /****
@@ -227,8 +263,8 @@ class StmtListNode extends ASTnode {
      * Given a symbol table symTab, process each statement in the list.
      ****/
     public void nameAnalysis(SymTab symTab) {
-        for (StmtNode node : myStmts) {
-            node.nameAnalysis(symTab);
+        for (int k = 0; k < myStmts.length; k++) {
+            myStmts[k].nameAnalysis(symTab);
         }
     }
 
@@ -236,29 +272,40 @@ class StmtListNode extends ASTnode {
      * typeCheck
      ***/
     public void typeCheck(Type retType) {
-        for(StmtNode node : myStmts) {
-            node.typeCheck(retType);
+        for (int k = 0; k < myStmts.length; k++) {
+            myStmts[k].typeCheck(retType);
         }
     }
 
     public void unparse(PrintWriter p, int indent) {
-        Iterator<StmtNode> it = myStmts.iterator();
-        while (it.hasNext()) {
-            it.next().unparse(p, indent);
-        } 
+        for (int k = 0; k < myStmts.length; k++) {
+            myStmts[k].unparse(p, indent);
+        }
+    }
+
+    public int kind() {
+        return FlatAst.STMT_LIST;
+    }
+
+    public int childCount() {
+        return myStmts.length;
+    }
+
+    public ASTnode child(int k) {
+        return myStmts[k];
     }
 
     // list of children (StmtNodes)
-    private List<StmtNode> myStmts;
+    private StmtNode[] myStmts;
 }
 
 class ExpListNode extends ASTnode {
     public ExpListNode(List<ExpNode> S) {
-        myExps = S;
+        myExps = S.toArray(new ExpNode[S.size()]);
     }
 
     public int size() {
-        return myExps.size();
+        return myExps.length;
     }
 
     /****
@@ -266,52 +313,58 @@ class ExpListNode extends ASTnode {
      * Given a symbol table symTab, process each exp in the list.
      ****/
     public void nameAnalysis(SymTab symTab) {
-        for (ExpNode node : myExps) {
-            node.nameAnalysis(symTab);
+        for (int k = 0; k < myExps.length; k++) {
+            myExps[k].nameAnalysis(symTab);
         }
     }
 
     /***
      * typeCheck
+     * typeList is the list of formal types, which the caller has checked
+     * has as many elements as this list.
      ***/
     public void typeCheck(List<Type> typeList) {
-        int k = 0;
-        try {
-            for (ExpNode node : myExps) {
-                Type actualType = node.typeCheck();     // actual type of arg
-                
-                if (!actualType.isErrorType()) {        // if this is not an error
-                    Type formalType = typeList.get(k);  // get the formal type
-                    if (!formalType.equals(actualType)) {
-                        ErrMsg.fatal(node.lineNum(), node.charNum(),
-                                     "Actual type and formal type do not match");
-                    }
+        for (int k = 0; k < myExps.length; k++) {
+            ExpNode node = myExps[k];
+            Type actualType = node.typeCheck();     // actual type of arg
+
+            if (!actualType.isErrorType()) {        // if this is not an error
+                Type formalType = typeList.get(k);  // get the formal type
+                if (!formalType.equals(actualType)) {
+                    ErrMsg.fatal(node.lineNum(), node.charNum(), "T010",
+                                 "Actual type and formal type do not match");
                 }
-                k++;
             }
-        } catch (NoSuchElementException e) {
-            System.err.println("unexpected NoSuchElementException in ExpListNode.typeCheck");
-            System.exit(-1);
         }
     }
 
     public void unparse(PrintWriter p, int indent) {
-        Iterator<ExpNode> it = myExps.iterator();
-        if (it.hasNext()) {         // if there is at least one element
-            it.next().unparse(p, indent);
-            while (it.hasNext()) {  // print the rest of the list
+        for (int k = 0; k < myExps.length; k++) {
+            if (k > 0) {
                 p.print(", ");
-                it.next().unparse(p, indent);
             }
-        } 
+            myExps[k].unparse(p, indent);
+        }
+    }
+
+    public int kind() {
+        return FlatAst.EXP_LIST;
+    }
+
+    public int childCount() {
+        return myExps.length;
+    }
+
+    public ASTnode child(int k) {
+        return myExps[k];
     }
 
     // list of children (ExpNodes)
-    private List<ExpNode> myExps;
+    private ExpNode[] myExps;
 }
 class FormalsListNode extends ASTnode {
     public FormalsListNode(List<FormalDeclNode> S) {
-        myFormals = S;
+        myFormals = S.toArray(new FormalDeclNode[S.size()]);
     }
 
     /****
@@ -322,9 +375,9 @@ class FormalsListNode extends ASTnode {
      *     if there was no error, add type of formal decl to list
      ****/
     public List<Type> nameAnalysis(SymTab symTab) {
-        List<Type> typeList = new LinkedList<Type>();
-        for (FormalDeclNode node : myFormals) {
-            Sym sym = node.nameAnalysis(symTab);
+        List<Type> typeList = new ArrayList<Type>(myFormals.length);
+        for (int k = 0; k < myFormals.length; k++) {
+            Sym sym = myFormals[k].nameAnalysis(symTab);
             if (sym != null) {
                 typeList.add(sym.getType());
             }
@@ -336,22 +389,32 @@ class FormalsListNode extends ASTnode {
      * Return the number of formals in this list.
      ****/
     public int length() {
-        return myFormals.size();
+        return myFormals.length;
     }
 
     public void unparse(PrintWriter p, int indent) {
-        Iterator<FormalDeclNode> it = myFormals.iterator();
-        if (it.hasNext()) { // if there is at least one element
-            it.next().unparse(p, indent);
-            while (it.hasNext()) {  // print the rest of the list
+        for (int k = 0; k < myFormals.length; k++) {
+            if (k > 0) {
                 p.print(", ");
-                it.next().unparse(p, indent);
             }
+            myFormals[k].unparse(p, indent);
         }
     }
 
+    public int kind() {
+        return FlatAst.FORMALS_LIST;
+    }
+
+    public int childCount() {
+        return myFormals.length;
+    }
+
+    public ASTnode child(int k) {
+        return myFormals[k];
+    }
+
     // list of children (FormalDeclNodes)
-    private List<FormalDeclNode> myFormals;
+    private FormalDeclNode[] myFormals;
 }
 
 class FuncBodyNode extends ASTnode {
@@ -383,6 +446,23 @@ class FuncBodyNode extends ASTnode {
         myStmtList.unparse(p, indent);
     }
 
+    public int kind() {
+        return FlatAst.FUNC_BODY;
+    }
+
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myDeclList;
+        default:
+            return myStmtList;
+        }
+    }
+
     // 2 children
     private DeclListNode myDeclList;
     private StmtListNode myStmtList;
@@ -410,6 +490,13 @@ class VarDeclNode extends DeclNode {
         mySize = size;
     }
 
+    /****
+     * Return the size given to this declaration by the parser.
+     ****/
+    public int size() {
+        return mySize;
+    }
+
     /****
      * nameAnalysis (overloaded)
      * Given a symbol table symTab, do:
@@ -436,7 +523,7 @@ class VarDeclNode extends DeclNode {
         IdNode structId = null;
 
         if (myType instanceof VoidNode) {  // check for void type
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+            ErrMsg.fatal(myId.lineNum(), myId.charNum(), "N003", 
                          "Non-function declared void");
             badDecl = true;        
         }
@@ -449,7 +536,7 @@ class VarDeclNode extends DeclNode {
 				// if the name for the struct type is not found, 
 				// or is not a struct type
 				if (sym == null || !(sym instanceof StructDefSym)) {
-					ErrMsg.fatal(structId.lineNum(), structId.charNum(), 
+					ErrMsg.fatal(structId.lineNum(), structId.charNum(), "N004", 
 								"Name of struct type invalid");
 					badDecl = true;
 				}
@@ -465,7 +552,7 @@ class VarDeclNode extends DeclNode {
         
 		try {
 			if (symTab.lookupLocal(name) != null) {
-				ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+				ErrMsg.fatal(myId.lineNum(), myId.charNum(), "N001", 
 							"Identifier multiply-declared");
 				badDecl = true;            
 			}
@@ -514,6 +601,23 @@ class VarDeclNode extends DeclNode {
         p.println(".");
     }
 
+    public int kind() {
+        return FlatAst.VAR_DECL;
+    }
+
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myType;
+        default:
+            return myId;
+        }
+    }
+
     // 3 children
     private TypeNode myType;
     private IdNode myId;
@@ -551,14 +655,14 @@ class FuncDeclNode extends DeclNode {
         FuncSym sym = null;
         try {
 			if (symTab.lookupLocal(name) != null) {
-				ErrMsg.fatal(myId.lineNum(), myId.charNum(),
+				ErrMsg.fatal(myId.lineNum(), myId.charNum(), "N001",
 							"Identifier multiply-declared");
 			}
         
 			else { // add function name to local symbol table
 
                 if (name.equals("main")) {
-                    ProgramNode.noMain = false; 
+                    CompileContext.current().noMain = false;
                 }
 
 				try {
@@ -632,6 +736,27 @@ class FuncDeclNode extends DeclNode {
         p.println("]\n");
     }
 
+    public int kind() {
+        return FlatAst.FUNC_DECL;
+    }
+
+    public int childCount() {
+        return 4;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myType;
+        case 1:
+            return myId;
+        case 2:
+            return myFormalsList;
+        default:
+            return myBody;
+        }
+    }
+
     // 4 children
     private TypeNode myType;
     private IdNode myId;
@@ -659,14 +784,14 @@ class FormalDeclNode extends DeclNode {
         Sym sym = null;
         
         if (myType instanceof VoidNode) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+            ErrMsg.fatal(myId.lineNum(), myId.charNum(), "N003", 
                          "Non-function declared void");
             badDecl = true;        
         }
         
         try { 
 			if (symTab.lookupLocal(name) != null) {
-				ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+				ErrMsg.fatal(myId.lineNum(), myId.charNum(), "N001", 
 							"Identifier multiply-declared");
 				badDecl = true;
 			}
@@ -704,6 +829,23 @@ class FormalDeclNode extends DeclNode {
         p.print(myId.name());
     }
 
+    public int kind() {
+        return FlatAst.FORMAL_DECL;
+    }
+
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myType;
+        default:
+            return myId;
+        }
+    }
+
     // 2 children
     private TypeNode myType;
     private IdNode myId;
@@ -730,7 +872,7 @@ class StructDeclNode extends DeclNode {
         boolean badDecl = false;
         try {
 			if (symTab.lookupLocal(name) != null) {
-				ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+				ErrMsg.fatal(myId.lineNum(), myId.charNum(), "N001", 
 							"Identifier multiply-declared");
 				badDecl = true;            
 			}
@@ -740,7 +882,7 @@ class StructDeclNode extends DeclNode {
             System.exit(-1);
         } 
 
-        SymTab structSymTab = new SymTab();
+        SymTab structSymTab = SymTab.create();
         
         // process the fields of the struct
         myDeclList.nameAnalysis(structSymTab, symTab);
@@ -774,6 +916,23 @@ class StructDeclNode extends DeclNode {
         p.println("]\n");
     }
 
+    public int kind() {
+        return FlatAst.STRUCT_DECL;
+    }
+
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myId;
+        default:
+            return myDeclList;
+        }
+    }
+
     // 2 children
     private IdNode myId;
     private DeclListNode myDeclList;
@@ -802,6 +961,10 @@ class BooleanNode extends TypeNode {
     public void unparse(PrintWriter p, int indent) {
         p.print("boolean");
     }
+
+    public int kind() {
+        return FlatAst.BOOLEAN;
+    }
 }
 
 class IntegerNode extends TypeNode {
@@ -818,6 +981,10 @@ class IntegerNode extends TypeNode {
     public void unparse(PrintWriter p, int indent) {
         p.print("integer");
     }
+
+    public int kind() {
+        return FlatAst.INTEGER;
+    }
 }
 
 class VoidNode extends TypeNode {
@@ -834,6 +1001,10 @@ class VoidNode extends TypeNode {
     public void unparse(PrintWriter p, int indent) {
         p.print("void");
     }
+
+    public int kind() {
+        return FlatAst.VOID;
+    }
 }
 
 class StructNode extends TypeNode {
@@ -856,6 +1027,18 @@ class StructNode extends TypeNode {
         p.print("struct ");
         p.print(myId.name());
     }
+
+    public int kind() {
+        return FlatAst.STRUCT;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myId;
+    }
 	
 	// 1 child
     private IdNode myId;
@@ -896,6 +1079,18 @@ class AssignStmtNode extends StmtNode {
         p.println(".");
     }
 
+    public int kind() {
+        return FlatAst.ASSIGN_STMT;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myAssign;
+    }
+
     // 1 child
     private AssignExpNode myAssign;
 }
@@ -920,7 +1115,7 @@ class PostIncStmtNode extends StmtNode {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isIntegerType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T014",
                          "Arithmetic operator with non-integer operand");
         }
     }
@@ -931,6 +1126,18 @@ class PostIncStmtNode extends StmtNode {
         p.println("++.");
     }
 
+    public int kind() {
+        return FlatAst.POST_INC_STMT;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myExp;
+    }
+
     // 1 child
     private ExpNode myExp;
 }
@@ -955,7 +1162,7 @@ class PostDecStmtNode extends StmtNode {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isIntegerType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T014",
                          "Arithmetic operator with non-integer operand");
         }
     }
@@ -966,6 +1173,18 @@ class PostDecStmtNode extends StmtNode {
         p.println("--.");
     }
 
+    public int kind() {
+        return FlatAst.POST_DEC_STMT;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myExp;
+    }
+
     // 1 child
     private ExpNode myExp;
 }
@@ -1006,7 +1225,7 @@ class IfStmtNode extends StmtNode {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isBooleanType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T017",
                          "Non-boolean expression in if condition");        
         }
         
@@ -1024,6 +1243,25 @@ class IfStmtNode extends StmtNode {
         p.println("}");  
     }
 
+    public int kind() {
+        return FlatAst.IF_STMT;
+    }
+
+    public int childCount() {
+        return 3;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myExp;
+        case 1:
+            return myDeclList;
+        default:
+            return myStmtList;
+        }
+    }
+
     // 3 children
     private ExpNode myExp;
     private DeclListNode myDeclList;
@@ -1083,7 +1321,7 @@ class IfElseStmtNode extends StmtNode {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isBooleanType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T017",
                          "Non-boolean expression in if condition");        
         }
         
@@ -1108,6 +1346,29 @@ class IfElseStmtNode extends StmtNode {
         p.println("}"); 
     }
 
+    public int kind() {
+        return FlatAst.IF_ELSE_STMT;
+    }
+
+    public int childCount() {
+        return 5;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myExp;
+        case 1:
+            return myThenDeclList;
+        case 2:
+            return myThenStmtList;
+        case 3:
+            return myElseDeclList;
+        default:
+            return myElseStmtList;
+        }
+    }
+
     // 5 children
     private ExpNode myExp;
     private DeclListNode myThenDeclList;
@@ -1152,7 +1413,7 @@ class WhileStmtNode extends StmtNode {
         Type type = myExp.typeCheck();
         
         if (!type.isErrorType() && !type.isBooleanType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T018",
                          "Non-boolean expression in while condition");        
         }
         
@@ -1170,6 +1431,25 @@ class WhileStmtNode extends StmtNode {
         p.println("}");
     }
 
+    public int kind() {
+        return FlatAst.WHILE_STMT;
+    }
+
+    public int childCount() {
+        return 3;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myExp;
+        case 1:
+            return myDeclList;
+        default:
+            return myStmtList;
+        }
+    }
+
     // 3 children
     private ExpNode myExp;
     private DeclListNode myDeclList;
@@ -1196,17 +1476,17 @@ class ReadStmtNode extends StmtNode {
         Type type = myExp.typeCheck();
         
         if (type.isFuncType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T005",
                          "Attempt to read function name");
         }
         
         if (type.isStructDefType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T006",
                          "Attempt to read struct name");
         }
         
         if (type.isStructType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T007",
                          "Attempt to read struct variable");
         }
     }
@@ -1218,6 +1498,18 @@ class ReadStmtNode extends StmtNode {
         p.println(".");
     }
 
+    public int kind() {
+        return FlatAst.READ_STMT;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myExp;
+    }
+
     // 1 child (actually can only be an IdNode or a StructAccessExpNode)
     private ExpNode myExp;
 }
@@ -1242,22 +1534,22 @@ class WriteStmtNode extends StmtNode {
         Type type = myExp.typeCheck();
         
         if (type.isFuncType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T001",
                          "Attempt to write function name");
         }
         
         if (type.isStructDefType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T002",
                          "Attempt to write struct name");
         }
         
         if (type.isStructType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T003",
                          "Attempt to write struct variable");
         }
         
         if (type.isVoidType()) {
-            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+            ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T004",
                          "Attempt to write void");
         }
     }
@@ -1269,6 +1561,18 @@ class WriteStmtNode extends StmtNode {
         p.println(").");
     }
 
+    public int kind() {
+        return FlatAst.WRITE_STMT;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myExp;
+    }
+
     // 2 children
     private ExpNode myExp;
     private Type myType;
@@ -1300,6 +1604,18 @@ class CallStmtNode extends StmtNode {
         p.println(".");
     }
 
+    public int kind() {
+        return FlatAst.CALL_STMT;
+    }
+
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myCall;
+    }
+
     // 1 child
     private CallExpNode myCall;
 }
@@ -1328,19 +1644,19 @@ class ReturnStmtNode extends StmtNode {
             Type type = myExp.typeCheck();
             
             if (retType.isVoidType()) {
-                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T012",
                              "Return value in void function");                
             }
             
             else if (!retType.isErrorType() && !type.isErrorType() && !retType.equals(type)){
-                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(),
+                ErrMsg.fatal(myExp.lineNum(), myExp.charNum(), "T013",
                              "Bad return value type");
             }
         }
         
         else {  // no return value given -- ok if this is a void function
             if (!retType.isVoidType()) {
-                ErrMsg.fatal(0, 0, "Missing return value");                
+                ErrMsg.fatal(0, 0, "T011", "Missing return value");                
             }
         }
 
@@ -1356,6 +1672,18 @@ class ReturnStmtNode extends StmtNode {
         p.println(".");
     }
 
+    public int kind() {
+        return FlatAst.RETURN_STMT;
+    }
+
+    public int childCount() {
+        return myExp == null ? 0 : 1;
+    }
+
+    public ASTnode child(int k) {
+        return myExp;
+    }
+
     // 1 child
     private ExpNode myExp; // possibly null
 }
@@ -1406,6 +1734,10 @@ class TrueNode extends ExpNode {
         p.print("TRUE");
     }
 
+    public int kind() {
+        return FlatAst.TRUE;
+    }
+
     private int myLineNum;
     private int myCharNum;
 }
@@ -1441,15 +1773,20 @@ class FalseNode extends ExpNode {
         p.print("FALSE");
     }
 
+    public int kind() {
+        return FlatAst.FALSE;
+    }
+
     private int myLineNum;
     private int myCharNum;
 }
 
 class IdNode extends ExpNode {
-    public IdNode(int lineNum, int charNum, String strVal) {
+    public IdNode(int lineNum, int charNum, String strVal, int id) {
         myLineNum = lineNum;
         myCharNum = charNum;
         myStrVal = strVal;
+        myId = id;
     }
 
     /****
@@ -1465,6 +1802,13 @@ class IdNode extends ExpNode {
     public String name() {
         return myStrVal;
     }
+
+    /****
+     * Return the id of this ID's name in the compilation's InternTable.
+     ****/
+    public int id() {
+        return myId;
+    }
     
     /****
      * Return the symbol associated with this ID.
@@ -1527,7 +1871,8 @@ class IdNode extends ExpNode {
 		try {
             Sym sym = symTab.lookupGlobal(myStrVal);
             if (sym == null) {
-                ErrMsg.fatal(myLineNum, myCharNum, "Identifier undeclared");
+                ErrMsg.fatal(myLineNum, myCharNum, "N002",
+                             "Identifier undeclared");
             } else {
                 link(sym);
             }
@@ -1559,9 +1904,14 @@ class IdNode extends ExpNode {
         }
     }
 
+    public int kind() {
+        return FlatAst.ID;
+    }
+
     private int myLineNum;
     private int myCharNum;
     private String myStrVal;
+    private int myId;
     private Sym mySym;
 }
 
@@ -1572,6 +1922,13 @@ class IntLitNode extends ExpNode {
         myIntVal = intVal;
     }
 
+    /***
+     * Return the value of this literal.
+     ***/
+    public int intVal() {
+        return myIntVal;
+    }
+
     /***
      * Return the line number for this literal.
      ***/
@@ -1597,6 +1954,10 @@ class IntLitNode extends ExpNode {
         p.print(myIntVal);
     }
 
+    public int kind() {
+        return FlatAst.INT_LIT;
+    }
+
     private int myLineNum;
     private int myCharNum;
     private int myIntVal;
@@ -1609,6 +1970,13 @@ class StringLitNode extends ExpNode {
         myStrVal = strVal;
     }
 
+    /***
+     * Return the value of this literal, as it appears in the source.
+     ***/
+    public String strVal() {
+        return myStrVal;
+    }
+
     /***
      * Return the line number for this literal.
      ***/
@@ -1634,6 +2002,10 @@ class StringLitNode extends ExpNode {
         p.print(myStrVal);
     }
 
+    public int kind() {
+        return FlatAst.STRING_LIT;
+    }
+
     private int myLineNum;
     private int myCharNum;
     private String myStrVal;
@@ -1700,7 +2072,7 @@ class StructAccessExpNode extends ExpNode {
                 structSymTab = ((StructDefSym)tempSym).getSymTab();
             } 
             else {  // LHS is not a struct type
-                ErrMsg.fatal(id.lineNum(), id.charNum(), 
+                ErrMsg.fatal(id.lineNum(), id.charNum(), "N005", 
                              "Colon-access of non-struct type");
                 badAccess = true;
             }
@@ -1720,7 +2092,7 @@ class StructAccessExpNode extends ExpNode {
                 sym = loc.sym();
 
                 if (sym == null) {  // no struct in which to look up RHS
-                    ErrMsg.fatal(loc.lineNum(), loc.charNum(), 
+                    ErrMsg.fatal(loc.lineNum(), loc.charNum(), "N005", 
                                  "Colon-access of non-struct type");
                     badAccess = true;
                 }
@@ -1747,7 +2119,7 @@ class StructAccessExpNode extends ExpNode {
 			try {
 				sym = structSymTab.lookupGlobal(myId.name()); // lookup
 				if (sym == null) { // not found - RHS is not a valid field name
-					ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+					ErrMsg.fatal(myId.lineNum(), myId.charNum(), "N006", 
 								"Name of struct field invalid");
 					badAccess = true;
 				}
@@ -1783,6 +2155,23 @@ class StructAccessExpNode extends ExpNode {
         myId.unparse(p, 0);
     }
 
+    public int kind() {
+        return FlatAst.STRUCT_ACCESS;
+    }
+
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myLoc;
+        default:
+            return myId;
+        }
+    }
+
     // 4 children
     private ExpNode myLoc;	
     private IdNode myId;
@@ -1831,22 +2220,25 @@ class AssignExpNode extends ExpNode {
         Type retType = typeLhs;
         
         if (typeLhs.isFuncType() && typeExp.isFuncType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Assignment to function name");
+            ErrMsg.fatal(lineNum(), charNum(), "T024",
+                         "Assignment to function name");
             retType = new ErrorType();
         }
         
         if (typeLhs.isStructDefType() && typeExp.isStructDefType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Assignment to struct name");
+            ErrMsg.fatal(lineNum(), charNum(), "T025",
+                         "Assignment to struct name");
             retType = new ErrorType();
         }
         
         if (typeLhs.isStructType() && typeExp.isStructType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Assignment to struct variable");
+            ErrMsg.fatal(lineNum(), charNum(), "T026",
+                         "Assignment to struct variable");
             retType = new ErrorType();
         }        
         
         if (!typeLhs.equals(typeExp) && !typeLhs.isErrorType() && !typeExp.isErrorType()) {
-            ErrMsg.fatal(lineNum(), charNum(), "Type mismatch");
+            ErrMsg.fatal(lineNum(), charNum(), "T019", "Type mismatch");
             retType = new ErrorType();
         }
         
@@ -1865,6 +2257,23 @@ class AssignExpNode extends ExpNode {
         if (indent != -1)  p.print(")");   
     }
 
+    public int kind() {
+        return FlatAst.ASSIGN_EXP;
+    }
+
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myLhs;
+        default:
+            return myExp;
+        }
+    }
+
     // 2 children
     private ExpNode myLhs;
     private ExpNode myExp;
@@ -1878,7 +2287,7 @@ class CallExpNode extends ExpNode {
 
     public CallExpNode(IdNode name) {
         myId = name;
-        myExpList = new ExpListNode(new LinkedList<ExpNode>());
+        myExpList = new ExpListNode(new ArrayList<ExpNode>());
     }
 
     /***
@@ -1912,7 +2321,7 @@ class CallExpNode extends ExpNode {
      ***/
     public Type typeCheck() {
         if (!myId.typeCheck().isFuncType()) {  
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+            ErrMsg.fatal(myId.lineNum(), myId.charNum(), "T008", 
                          "Attempt to call non-function");
             return new ErrorType();
         }
@@ -1925,7 +2334,7 @@ class CallExpNode extends ExpNode {
         }
         
         if (myExpList.size() != fctnSym.getNumParams()) {
-            ErrMsg.fatal(myId.lineNum(), myId.charNum(), 
+            ErrMsg.fatal(myId.lineNum(), myId.charNum(), "T009", 
                          "Wrong # of args in function call");
             return fctnSym.getReturnType();
         }
@@ -1942,6 +2351,23 @@ class CallExpNode extends ExpNode {
         p.print(")");   
     }
 
+    public int kind() {
+        return FlatAst.CALL_EXP;
+    }
+
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myId;
+        default:
+            return myExpList;
+        }
+    }
+
     // 2 children
     private IdNode myId;
     private ExpListNode myExpList;  // possibly null
@@ -1976,6 +2402,14 @@ abstract class UnaryExpNode extends ExpNode {
         myExp.nameAnalysis(symTab);
     }
 
+    public int childCount() {
+        return 1;
+    }
+
+    public ASTnode child(int k) {
+        return myExp;
+    }
+
     // 1 child
     protected ExpNode myExp;
 }
@@ -2012,6 +2446,19 @@ abstract class BinaryExpNode extends ExpNode {
         myExp2.nameAnalysis(symTab);
     }
 
+    public int childCount() {
+        return 2;
+    }
+
+    public ASTnode child(int k) {
+        switch (k) {
+        case 0:
+            return myExp1;
+        default:
+            return myExp2;
+        }
+    }
+
     // 2 children
     protected ExpNode myExp1;
     protected ExpNode myExp2;
@@ -2034,7 +2481,7 @@ class NotNode extends UnaryExpNode {
         Type retType = new BooleanType();
         
         if (!type.isErrorType() && !type.isBooleanType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
+            ErrMsg.fatal(lineNum(), charNum(), "T016",
                          "Logical operator with non-boolean operand");
             retType = new ErrorType();
         }
@@ -2051,6 +2498,10 @@ class NotNode extends UnaryExpNode {
         myExp.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.NOT;
+    }
 }
 
 class UnaryMinusNode extends UnaryExpNode {
@@ -2066,7 +2517,7 @@ class UnaryMinusNode extends UnaryExpNode {
         Type retType = new IntegerType();
         
         if (!type.isErrorType() && !type.isIntegerType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
+            ErrMsg.fatal(lineNum(), charNum(), "T014",
                          "Arithmetic operator with non-integer operand");
             retType = new ErrorType();
         }
@@ -2083,6 +2534,10 @@ class UnaryMinusNode extends UnaryExpNode {
         myExp.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.UNARY_MINUS;
+    }
 }
 
 // **********************************************************************
@@ -2103,13 +2558,13 @@ abstract class ArithmeticExpNode extends BinaryExpNode {
         Type retType = new IntegerType();
         
         if (!type1.isErrorType() && !type1.isIntegerType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
+            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(), "T014",
                          "Arithmetic operator with non-integer operand");
             retType = new ErrorType();
         }
         
         if (!type2.isErrorType() && !type2.isIntegerType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
+            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(), "T014",
                          "Arithmetic operator with non-integer operand");
             retType = new ErrorType();
         }
@@ -2136,13 +2591,13 @@ abstract class BooleanExpNode extends BinaryExpNode {
         Type retType = new BooleanType();
         
         if (!type1.isErrorType() && !type1.isBooleanType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
+            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(), "T016",
                          "Logical operator with non-boolean operand");
             retType = new ErrorType();
         }
         
         if (!type2.isErrorType() && !type2.isBooleanType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
+            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(), "T016",
                          "Logical operator with non-boolean operand");
             retType = new ErrorType();
         }
@@ -2169,31 +2624,31 @@ abstract class EqualityExpNode extends BinaryExpNode {
         Type retType = new BooleanType();
         
         if (type1.isVoidType() && type2.isVoidType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
+            ErrMsg.fatal(lineNum(), charNum(), "T020",
                          "Equality operator applied to void function calls");
             retType = new ErrorType();
         }
         
         if (type1.isFuncType() && type2.isFuncType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
+            ErrMsg.fatal(lineNum(), charNum(), "T021",
                          "Equality operator applied to function names");
             retType = new ErrorType();
         }
         
         if (type1.isStructDefType() && type2.isStructDefType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
+            ErrMsg.fatal(lineNum(), charNum(), "T022",
                          "Equality operator applied to struct names");
             retType = new ErrorType();
         }
         
         if (type1.isStructType() && type2.isStructType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
+            ErrMsg.fatal(lineNum(), charNum(), "T023",
                          "Equality operator applied to struct variables");
             retType = new ErrorType();
         }        
         
         if (!type1.equals(type2) && !type1.isErrorType() && !type2.isErrorType()) {
-            ErrMsg.fatal(lineNum(), charNum(),
+            ErrMsg.fatal(lineNum(), charNum(), "T019",
                          "Type mismatch");
             retType = new ErrorType();
         }
@@ -2220,13 +2675,13 @@ abstract class RelationalExpNode extends BinaryExpNode {
         Type retType = new BooleanType();
         
         if (!type1.isErrorType() && !type1.isIntegerType()) {
-            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(),
+            ErrMsg.fatal(myExp1.lineNum(), myExp1.charNum(), "T015",
                          "Relational operator with non-integer operand");
             retType = new ErrorType();
         }
         
         if (!type2.isErrorType() && !type2.isIntegerType()) {
-            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(),
+            ErrMsg.fatal(myExp2.lineNum(), myExp2.charNum(), "T015",
                          "Relational operator with non-integer operand");
             retType = new ErrorType();
         }
@@ -2251,6 +2706,10 @@ class AndNode extends BooleanExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.AND;
+    }
 }
 
 class OrNode extends BooleanExpNode {
@@ -2265,6 +2724,10 @@ class OrNode extends BooleanExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.OR;
+    }
 }
 
 class PlusNode extends ArithmeticExpNode {
@@ -2279,6 +2742,10 @@ class PlusNode extends ArithmeticExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.PLUS;
+    }
 }
 
 class MinusNode extends ArithmeticExpNode {
@@ -2293,6 +2760,10 @@ class MinusNode extends ArithmeticExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.MINUS;
+    }
 }
 
 class TimesNode extends ArithmeticExpNode {
@@ -2307,6 +2778,10 @@ class TimesNode extends ArithmeticExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.TIMES;
+    }
 }
 
 class DivideNode extends ArithmeticExpNode {
@@ -2321,6 +2796,10 @@ class DivideNode extends ArithmeticExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.DIVIDE;
+    }
 }
 
 class EqualsNode extends EqualityExpNode {
@@ -2335,6 +2814,10 @@ class EqualsNode extends EqualityExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.EQUALS;
+    }
 }
 
 class NotEqNode extends EqualityExpNode {
@@ -2349,6 +2832,10 @@ class NotEqNode extends EqualityExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.NOT_EQ;
+    }
 }
 
 class GreaterNode extends RelationalExpNode {
@@ -2363,6 +2850,10 @@ class GreaterNode extends RelationalExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.GREATER;
+    }
 }
 
 class GreaterEqNode extends RelationalExpNode {
@@ -2377,6 +2868,10 @@ class GreaterEqNode extends RelationalExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.GREATER_EQ;
+    }
 }
 
 class LessNode extends RelationalExpNode {
@@ -2391,6 +2886,10 @@ class LessNode extends RelationalExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.LESS;
+    }
 }
 
 class LessEqNode extends RelationalExpNode {
@@ -2405,4 +2904,8 @@ class LessEqNode extends RelationalExpNode {
         myExp2.unparse(p, 0);
         p.print(")");
     }
+
+    public int kind() {
+        return FlatAst.LESS_EQ;
+    }
 }
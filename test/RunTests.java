@@ -0,0 +1,636 @@
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/****
+ * RunTests
+ *
+ * Runs the golden-output tests of p2-p6 in one JVM, in parallel.
+ *
+ * Usage:  java RunTests [-root dir] [-j threads] [-v] [phase...]
+ *
+ *   -root dir    directory holding p2-p6 (default ..)
+ *   -j threads   number of tests run at once (default: one per processor)
+ *   -v           print every test, with what it wrote to stdout/stderr
+ *   phase...     only run the tests of these phases, e.g.  p3 p4
+ *
+ * A test is a source file (name.bach, name.in or name.txt) in a phase
+ * directory with a golden file for what the phase writes to its output
+ * file, for what it writes to stderr, or both:
+ *
+ *   name.out               expected output file, next to the source or,
+ *                          as run-tests.sh in p3 leaves them, in
+ *                          tests/tests-out below the source's directory
+ *   name.err               expected error messages, next to the source
+ *   name.status            for p6: the exit status expected of P6 run
+ *                          on the source, one run a line, each line the
+ *                          options to run it with and then the status,
+ *                          e.g.  --max-errors=1 255
+ *
+ * Each test runs the phase through its main program's entry point, using
+ * the classes built by the phase's Makefile: P2.runTest, which scans one
+ * file, or P3.run-P6.run, which do what main does but return the exit
+ * status instead of exiting.  Every test gets its own class loader, so
+ * the static state of the phases (e.g. ErrMsg's error flag in p3-p5) is
+ * not shared between tests, and System.out/System.err are split by
+ * thread, so what each test prints is kept apart from the tests running
+ * beside it.
+ *
+ * Two more phases run p2's scanner tests through p6's scanners, using
+ * P6 --tokens: p6-jlex with Yylex and p6-fast with FastLexer.  As p3-p6
+ * end one error message with a blank that p2 does not, blanks at the ends
+ * of lines of stderr are ignored in these.
+ *
+ * One more, p6-parse, runs p3's tests through p6's hand-written
+ * FastParser, using P6 --unparse --parser=fast.  Its golden files are not
+ * used (p6's grammar and unparse differ from p3's): what it writes to the
+ * output file and to stderr must be what P6 --unparse writes with CUP's
+ * parser instead, except that FastParser goes on after the first syntax
+ * error, where CUP's parser stops, so its stderr need only begin with
+ * CUP's.
+ *
+ * The phases write their output to temporary files, kept in /dev/shm
+ * where there is one.
+ *
+ * Prints a line for each failing test and a summary with timings; exits
+ * with status 1 if any test failed.
+ ****/
+public class RunTests {
+    static final String[] PHASES = { "p2", "p3", "p4", "p5", "p6",
+                                     "p6-jlex", "p6-fast", "p6-parse" };
+
+    // the phases that run p2's tests with p6, and the lexer each uses
+    static final Map<String, String> LEXERS = Map.of(
+        "p6-jlex", "jlex",
+        "p6-fast", "fast");
+    static final String[] SOURCE_EXTS = { ".bach", ".in", ".txt" };
+
+    // where the phases write their output files: in memory if the system
+    // has a tmpfs there (on a disk, removing a file the phase has just
+    // written can wait for it to be written back, ~60 ms a test), or else
+    // the default temporary directory
+    static final File TMP_DIR = new File("/dev/shm").isDirectory() &&
+                                new File("/dev/shm").canWrite()
+                                ? new File("/dev/shm") : null;
+
+    static boolean verbose = false;
+
+    // stdout and stderr of the test each thread is running
+    static final ThreadStream threadOut = new ThreadStream(System.out);
+    static final ThreadStream threadErr = new ThreadStream(System.err);
+
+    public static void main(String[] args) throws Exception {
+        File root = new File("..");
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> phases = new ArrayList<String>();
+
+        for (int k = 0; k < args.length; k++) {
+            if (args[k].equals("-root") && k + 1 < args.length) {
+                root = new File(args[++k]);
+            }
+            else if (args[k].equals("-j") && k + 1 < args.length) {
+                threads = Integer.parseInt(args[++k]);
+            }
+            else if (args[k].equals("-v")) {
+                verbose = true;
+            }
+            else if (Arrays.asList(PHASES).contains(args[k])) {
+                phases.add(args[k]);
+            }
+            else {
+                System.err.println("usage: java RunTests [-root dir] " +
+                                   "[-j threads] [-v] [phase...]");
+                System.exit(-1);
+            }
+        }
+        if (phases.isEmpty()) {
+            phases.addAll(Arrays.asList(PHASES));
+        }
+
+        long start = System.nanoTime();
+        List<Test> tests = new ArrayList<Test>();
+        for (String phase : phases) {
+            String classes = phase.startsWith("p6-") ? "p6" : phase;
+            File dir = new File(root, classes);
+            if (!new File(dir, classes.toUpperCase() + ".class").exists()) {
+                System.err.println(phase + ": not built (run make in " +
+                                   dir + "); skipped");
+                continue;
+            }
+            File testDir = LEXERS.containsKey(phase) ? new File(root, "p2")
+                           : phase.equals("p6-parse") ? new File(root, "p3")
+                           : dir;
+            Phase p = new Phase(phase, dir, testDir);
+            discover(p, testDir, tests);
+        }
+
+        System.setOut(new PrintStream(threadOut, true));
+        System.setErr(new PrintStream(threadErr, true));
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Test>> results = new ArrayList<Future<Test>>();
+        for (Test test : tests) {
+            results.add(pool.submit(test));
+        }
+
+        PrintStream out = threadOut.dflt;
+        Map<String, long[]> perPhase = new LinkedHashMap<String, long[]>();
+        int failed = 0;
+        for (Future<Test> result : results) {
+            Test test = result.get();
+            long[] totals = perPhase.get(test.phase.name);
+            if (totals == null) {
+                totals = new long[3];   // tests, failures, nanoseconds
+                perPhase.put(test.phase.name, totals);
+            }
+            totals[0]++;
+            totals[2] += test.nanos;
+            if (test.failure != null) {
+                totals[1]++;
+                failed++;
+                out.println("FAIL " + test.name + ": " + test.failure);
+            }
+            else if (verbose) {
+                out.println("ok   " + test.name + " (" + millis(test.nanos) +
+                            " ms)");
+            }
+            if (verbose || test.failure != null) {
+                printCaptured(out, "stdout", test.stdout);
+                printCaptured(out, "stderr", test.stderr);
+            }
+        }
+        pool.shutdown();
+
+        for (Map.Entry<String, long[]> e : perPhase.entrySet()) {
+            long[] totals = e.getValue();
+            out.println(e.getKey() + ": " + totals[0] + " test(s), " +
+                        totals[1] + " failed (" + millis(totals[2]) +
+                        " ms in tests)");
+        }
+        out.println(tests.size() + " test(s), " + (tests.size() - failed) +
+                    " passed, " + failed + " failed (" +
+                    millis(System.nanoTime() - start) + " ms, " + threads +
+                    " thread(s))");
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    private static void printCaptured(PrintStream out, String what,
+                                      String text) {
+        if (text.length() > 0) {
+            out.println("  " + what + ":");
+            for (String line : text.split("\n")) {
+                out.println("    " + line);
+            }
+        }
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+
+    /****
+     * discover
+     * Adds a test for every source file under dir (other than in deps)
+     * that has a golden file.
+     ****/
+    static void discover(Phase phase, File dir, List<Test> tests) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            String name = f.getName();
+            if (f.isDirectory()) {
+                if (!name.equals("deps") && !name.startsWith(".")) {
+                    discover(phase, f, tests);
+                }
+                continue;
+            }
+            for (String ext : SOURCE_EXTS) {
+                if (!name.endsWith(ext)) {
+                    continue;
+                }
+                String base = name.substring(0, name.length() - ext.length());
+                File out = new File(dir, base + ".out");
+                if (!out.exists()) {
+                    out = new File(dir, "tests/tests-out/" + base + ".out");
+                }
+                File err = new File(dir, base + ".err");
+                File status = new File(dir, base + ".status");
+                if (!phase.name.equals("p6")) {
+                    status = null;
+                }
+                if (out.exists() || err.exists() ||
+                    (status != null && status.exists())) {
+                    tests.add(new Test(phase, f, out.exists() ? out : null,
+                                       err.exists() ? err : null,
+                                       status != null && status.exists()
+                                           ? status : null));
+                }
+            }
+        }
+    }
+
+    // **********************************************************************
+    // Test
+    // **********************************************************************
+
+    /****
+     * Test
+     * One source file run through one phase and compared with its golden
+     * files.  failure is null if the test passed.
+     ****/
+    static class Test implements Callable<Test> {
+        final Phase phase;
+        final String name;
+        final File source, goldenOut, goldenErr, goldenStatus;
+
+        String failure = null;
+        String stdout = "", stderr = "";
+        long nanos;
+
+        Test(Phase phase, File source, File goldenOut, File goldenErr,
+             File goldenStatus) {
+            this.phase = phase;
+            this.source = source;
+            this.goldenOut = goldenOut;
+            this.goldenErr = goldenErr;
+            this.goldenStatus = goldenStatus;
+            name = phase.name + source.getPath()
+                                      .substring(phase.testDir.getPath()
+                                                          .length());
+        }
+
+        public Test call() {
+            ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+            threadOut.set(outBytes);
+            threadErr.set(errBytes);
+            long start = System.nanoTime();
+            String output = null;
+            try {
+                output = phase.run(source);
+            } catch (Throwable ex) {
+                if (ex instanceof InvocationTargetException) {
+                    ex = ex.getCause();
+                }
+                failure = "threw " + ex;
+            } finally {
+                nanos = System.nanoTime() - start;
+                threadOut.set(null);
+                threadErr.set(null);
+            }
+            stdout = outBytes.toString();
+            stderr = errBytes.toString();
+
+            if (failure == null && phase.name.equals("p6-parse")) {
+                // compared with CUP's parser, not the golden files
+                try {
+                    String[] expected = phase.reference(source);
+                    failure = compare("output", expected[0], output);
+                    String actual = stderr;
+                    if (actual.startsWith(expected[1])) {
+                        // any more errors are from after CUP's parser
+                        // stopped
+                        actual = expected[1];
+                    }
+                    if (failure == null) {
+                        failure = compare("stderr", expected[1], actual);
+                    }
+                } catch (Exception ex) {
+                    failure = "reference run threw " + ex;
+                }
+                return this;
+            }
+
+            try {
+                if (failure == null && goldenOut != null) {
+                    failure = compare("output", read(goldenOut), output);
+                }
+                if (failure == null && goldenErr != null) {
+                    String expected = read(goldenErr);
+                    String actual = stderr;
+                    if (LEXERS.containsKey(phase.name)) {
+                        expected = expected.replaceAll("(?m)[ \t]+$", "");
+                        actual = actual.replaceAll("(?m)[ \t]+$", "");
+                    }
+                    failure = compare("stderr", expected, actual);
+                }
+                if (failure == null && goldenStatus != null) {
+                    failure = checkStatus(read(goldenStatus));
+                }
+            } catch (IOException ex) {
+                failure = "cannot read golden file: " + ex.getMessage();
+            } catch (Exception ex) {
+                failure = "status run threw " + ex;
+            }
+            return this;
+        }
+
+        /****
+         * checkStatus
+         * Runs P6 on the source for each line of a .status file and
+         * returns null if every run exits with the status the line gives,
+         * or else a description of the first that does not.
+         ****/
+        private String checkStatus(String runs) throws Exception {
+            for (String line : runs.split("\n")) {
+                String[] words = line.trim().split("\\s+");
+                if (words[0].isEmpty()) {
+                    continue;
+                }
+                String[] options = Arrays.copyOf(words, words.length - 1);
+                int expected = Integer.parseInt(words[words.length - 1]);
+                int actual = phase.status(source, options);
+                if (actual != expected) {
+                    return "exit status of P6 " +
+                           String.join(" ", options) +
+                           (options.length > 0 ? " " : "") + "differs: " +
+                           "expected " + expected + ", got " + actual;
+                }
+            }
+            return null;
+        }
+
+        /****
+         * compare
+         * Returns null if actual is the same as expected, or else a
+         * description of the first line that differs.
+         ****/
+        private static String compare(String what, String expected,
+                                      String actual) {
+            if (expected.equals(actual)) {
+                return null;
+            }
+            String[] exp = expected.split("\n", -1);
+            String[] act = actual.split("\n", -1);
+            int k = 0;
+            while (k < exp.length && k < act.length && exp[k].equals(act[k])) {
+                k++;
+            }
+            return what + " differs at line " + (k + 1) + ": expected " +
+                   (k < exp.length ? "\"" + exp[k] + "\"" : "end of file") +
+                   ", got " +
+                   (k < act.length ? "\"" + act[k] + "\"" : "end of file");
+        }
+
+        private static String read(File f) throws IOException {
+            return new String(Files.readAllBytes(f.toPath()),
+                              StandardCharsets.UTF_8);
+        }
+    }
+
+    // **********************************************************************
+    // Phase
+    // **********************************************************************
+
+    /****
+     * Phase
+     * One of p2-p6, p6-jlex, p6-fast or p6-parse.  The bytes of its classes (from
+     * its directory and its deps) are read once and shared, but each run
+     * defines them afresh in a new class loader.
+     ****/
+    static class Phase {
+        final String name;
+        final File dir;         // where its classes are
+        final File testDir;     // where its tests are
+        private final File[] classPath;
+        private final ConcurrentHashMap<String, byte[]> classBytes =
+            new ConcurrentHashMap<String, byte[]>();
+
+        Phase(String name, File dir, File testDir) {
+            this.name = name;
+            this.dir = dir;
+            this.testDir = testDir;
+            classPath = new File[] { dir, new File(dir, "deps") };
+        }
+
+        /****
+         * run
+         * Runs the phase on source with its main program's entry point and
+         * returns what it wrote to its output file.
+         ****/
+        String run(File source) throws Exception {
+            Loader loader = new Loader();
+            String src = source.getPath();
+            if (name.equals("p2")) {
+                // P2.runTest(input, output) scans input and writes the
+                // tokens to output
+                return withOutputFile(out ->
+                    invokeStatic(loader.loadClass("P2"), "runTest", src, out));
+            }
+            if (LEXERS.containsKey(name)) {
+                // P6 --tokens writes the tokens in P2's format
+                return runP6(loader, System.err, src, "--tokens",
+                             "--lexer=" + LEXERS.get(name));
+            }
+            if (name.equals("p6-parse")) {
+                return runP6(loader, System.err, src, "--unparse",
+                             "--parser=fast");
+            }
+            if (name.equals("p6")) {
+                // compiles source to MIPS code
+                return runP6(loader, System.err, src);
+            }
+
+            // p3-p5: Pn.run(args) parses, checks and unparses source as
+            // main does, but returns the exit status instead of exiting
+            Class<?> main = loader.loadClass(name.toUpperCase());
+            return withOutputFile(out ->
+                invokeStatic(main, "run", (Object)new String[] { src, out }));
+        }
+
+        /****
+         * reference
+         * For p6-parse: runs P6 --unparse on source with CUP's parser and
+         * returns what it writes to the output file and to stderr.
+         ****/
+        String[] reference(File source) throws Exception {
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            String output = runP6(new Loader(), new PrintStream(err, true),
+                                  source.getPath(), "--unparse",
+                                  "--parser=cup");
+            return new String[] { output, err.toString() };
+        }
+
+        /****
+         * status
+         * For p6: runs P6 with the given options on source, discarding
+         * what it writes, and returns the exit status main would exit
+         * with (-1 as 255, as the shell sees it).
+         ****/
+        int status(File source, String[] options) throws Exception {
+            PrintStream discard =
+                new PrintStream(OutputStream.nullOutputStream());
+            int[] status = new int[1];
+            runP6(new Loader(), discard, status, source.getPath(), options);
+            return status[0] & 0xff;
+        }
+
+        /****
+         * runP6
+         * Runs P6.run(args, dir, out, err) with the given options on src,
+         * and an output file, and returns what it wrote to that file.
+         ****/
+        private String runP6(Loader loader, PrintStream err, String src,
+                             String... options) throws Exception {
+            return runP6(loader, err, new int[1], src, options);
+        }
+
+        // as above, also setting status[0] to what P6.run returned
+        private String runP6(Loader loader, PrintStream err, int[] status,
+                             String src, String... options)
+            throws Exception {
+            Class<?> p6 = loader.loadClass("P6");
+            return withOutputFile(out -> {
+                String[] args = Arrays.copyOf(options, options.length + 2);
+                args[options.length] = src;
+                args[options.length + 1] = out;
+                status[0] = (Integer)invokeStatic(p6, "run", args, null,
+                                                  System.out, err);
+                return null;
+            });
+        }
+
+        /****
+         * withOutputFile
+         * Calls driver with the name of a new temporary file and returns
+         * what it wrote to that file.
+         ****/
+        private String withOutputFile(Driver driver) throws Exception {
+            File tmp = File.createTempFile("test", ".out", TMP_DIR);
+            try {
+                driver.run(tmp.getPath());
+                return new String(Files.readAllBytes(tmp.toPath()));
+            } finally {
+                tmp.delete();
+            }
+        }
+
+        /****
+         * Loader
+         * Defines the phase's classes, and java_cup's, from the shared
+         * bytes; everything else comes from the platform.
+         ****/
+        class Loader extends ClassLoader {
+            Loader() {
+                super(ClassLoader.getPlatformClassLoader());
+            }
+
+            protected Class<?> findClass(String className)
+                throws ClassNotFoundException {
+                byte[] bytes = classBytes.computeIfAbsent(className,
+                                                          this::readClass);
+                if (bytes.length == 0) {
+                    throw new ClassNotFoundException(className);
+                }
+                return defineClass(className, bytes, 0, bytes.length);
+            }
+
+            private byte[] readClass(String className) {
+                String file = className.replace('.', '/') + ".class";
+                for (File dir : classPath) {
+                    File f = new File(dir, file);
+                    if (f.exists()) {
+                        try {
+                            return Files.readAllBytes(f.toPath());
+                        } catch (IOException ex) {
+                            break;
+                        }
+                    }
+                }
+                return new byte[0];
+            }
+        }
+    }
+
+    // **********************************************************************
+    // reflection helpers
+    // **********************************************************************
+
+    /****
+     * Driver
+     * Runs a phase's entry point, which writes to the given output file.
+     ****/
+    interface Driver {
+        Object run(String outFile) throws Exception;
+    }
+
+    /****
+     * invokeStatic
+     * Calls the public static method of cls with the given name that
+     * accepts args.
+     ****/
+    static Object invokeStatic(Class<?> cls, String method, Object... args)
+        throws Exception {
+        for (Method m : cls.getMethods()) {
+            if (m.getName().equals(method) &&
+                Modifier.isStatic(m.getModifiers()) &&
+                accepts(m.getParameterTypes(), args)) {
+                return m.invoke(null, args);
+            }
+        }
+        throw new NoSuchMethodException(cls.getName() + "." + method);
+    }
+
+    private static boolean accepts(Class<?>[] params, Object[] args) {
+        if (params.length != args.length) {
+            return false;
+        }
+        for (int k = 0; k < params.length; k++) {
+            if (args[k] == null) {
+                if (params[k].isPrimitive()) {
+                    return false;
+                }
+            }
+            else if (!params[k].isInstance(args[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // **********************************************************************
+    // ThreadStream
+    // **********************************************************************
+
+    /****
+     * ThreadStream
+     * An output stream that writes to the stream set by the calling
+     * thread, or to dflt if the thread has not set one.
+     ****/
+    static class ThreadStream extends OutputStream {
+        final PrintStream dflt;
+        private final ThreadLocal<OutputStream> target =
+            new ThreadLocal<OutputStream>();
+
+        ThreadStream(PrintStream dflt) {
+            this.dflt = dflt;
+        }
+
+        void set(OutputStream out) {
+            target.set(out);
+        }
+
+        private OutputStream out() {
+            OutputStream out = target.get();
+            return out != null ? out : dflt;
+        }
+
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
+        }
+
+        public void flush() throws IOException {
+            out().flush();
+        }
+    }
+}